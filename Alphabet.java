@@ -1,27 +1,72 @@
 package enigma;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
- *  to and from indices into the alphabet.
+ *  to and from indices into the alphabet.  Characters are Unicode code
+ *  points, so an alphabet may contain supplementary characters.  Small
+ *  alphabets of low code points are indexed with a dense array; others use
+ *  an open-addressing hash table of code points.
  *  @author annetta
  */
 class Alphabet {
     /** _chars in Alphabet. **/
     private final String _chars;
-    /** map  in Alphabet. **/
-    private final HashMap<Integer, Character> _alphabet;
+    /** Code point of each index in Alphabet. **/
+    private final int[] _codePoints;
+    /** Largest code point in Alphabet, or -1 if it is empty. **/
+    private final int _maxCodePoint;
+    /** Index of each code point below _dense.length, or -1; null if this
+     *  alphabet uses the hash table instead. **/
+    private final int[] _dense;
+    /** Code points in the hash table, or -1 for an empty slot. **/
+    private final int[] _keys;
+    /** Index of the code point in the corresponding slot of _keys. **/
+    private final int[] _values;
+
+    /** Largest code point indexed with a dense array regardless of how
+     *  many characters the alphabet has. */
+    private static final int DENSE_MIN = 0x100;
+    /** Maximum ratio of dense table size to alphabet size. */
+    private static final int DENSE_RATIO = 16;
+
     /** A new alphabet containing CHARS. The K-th character has index
      *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
         _chars = chars;
-        _alphabet = new HashMap<>();
-        char[] cha = chars.toCharArray();
-        int i = 0;
-        for (char c : cha) {
-            _alphabet.put(i, c);
-            i++;
+        _codePoints = chars.codePoints().toArray();
+        int max = -1;
+        for (int cp : _codePoints) {
+            max = Math.max(max, cp);
+        }
+        _maxCodePoint = max;
+        if (max < Character.MIN_SUPPLEMENTARY_CODE_POINT
+            && max < Math.max(DENSE_MIN, DENSE_RATIO * _codePoints.length)) {
+            _dense = new int[max + 1];
+            Arrays.fill(_dense, -1);
+            _keys = _values = null;
+            for (int i = 0; i < _codePoints.length; i += 1) {
+                if (_dense[_codePoints[i]] >= 0) {
+                    throw error("duplicate character in alphabet");
+                }
+                _dense[_codePoints[i]] = i;
+            }
+        } else {
+            _dense = null;
+            int cap = Integer.highestOneBit(2 * _codePoints.length) * 2;
+            _keys = new int[cap];
+            _values = new int[cap];
+            Arrays.fill(_keys, -1);
+            for (int i = 0; i < _codePoints.length; i += 1) {
+                int slot = slot(_codePoints[i]);
+                if (_keys[slot] >= 0) {
+                    throw error("duplicate character in alphabet");
+                }
+                _keys[slot] = _codePoints[i];
+                _values[slot] = i;
+            }
         }
     }
 
@@ -32,35 +77,103 @@ class Alphabet {
 
     /** Returns the size of the alphabet. */
     int size() {
-        return _chars.length();
+        return _codePoints.length;
     }
 
+    /** Returns the largest code point in this alphabet, or -1 if it is
+     *  empty. */
+    int maxCodePoint() {
+        return _maxCodePoint;
+    }
+
+    /** Returns the characters of this alphabet, in order. */
     String getChars() {
         return _chars;
     }
 
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-        return _alphabet.containsValue(ch);
+        return indexOf(ch) >= 0;
+    }
+
+    /** Returns true if the character CODEPOINT is in this alphabet. */
+    boolean contains(int codePoint) {
+        return indexOf(codePoint) >= 0;
     }
 
     /** Returns character number INDEX in the alphabet, where
-     *  0 <= INDEX < size(). */
+     *  0 <= INDEX < size(). The character must not be a supplementary
+     *  character; use toCodePoint for those. */
     char toChar(int index) {
-        return _alphabet.get(index);
+        int cp = _codePoints[index];
+        if (cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            throw error("character %d is not a single char", index);
+        }
+        return (char) cp;
+    }
+
+    /** Returns the code point of character number INDEX in the alphabet,
+     *  where 0 <= INDEX < size(). */
+    int toCodePoint(int index) {
+        return _codePoints[index];
     }
 
     /** Returns the index of character CH which must be in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        if (!_alphabet.containsValue(ch)) {
-            System.out.println(ch);
-            throw new EnigmaException("ALPHABET ERROR1");
+        return toInt((int) ch);
+    }
+
+    /** Returns the index of the character CODEPOINT, which must be in
+     *  the alphabet. This is the inverse of toCodePoint(). */
+    int toInt(int codePoint) {
+        int i = indexOf(codePoint);
+        if (i < 0) {
+            if (Character.isValidCodePoint(codePoint)) {
+                throw error("character %c not in alphabet", codePoint);
+            }
+            throw error("code point %d not in alphabet", codePoint);
         }
-        for (Map.Entry<Integer, Character> entry : _alphabet.entrySet()) {
-            if (entry.getValue().equals(ch)) {
-                return entry.getKey();
+        return i;
+    }
+
+    /** Returns the indices of the characters of TEXT, ignoring
+     *  whitespace.  The other characters must all be in the alphabet. */
+    int[] indices(String text) {
+        return text.codePoints().filter((c) -> !Character.isWhitespace(c))
+            .map((c) -> {
+                if (!contains(c)) {
+                    throw error("%s not in alphabet",
+                                new String(Character.toChars(c)));
+                }
+                return indexOf(c);
+            }).toArray();
+    }
+
+    /** Returns the index of CODEPOINT in this alphabet, or -1 if it is
+     *  not present. */
+    private int indexOf(int codePoint) {
+        if (_dense != null) {
+            if (codePoint < 0 || codePoint >= _dense.length) {
+                return -1;
             }
-        } throw new EnigmaException("ALPHABET ERROR2");
+            return _dense[codePoint];
+        }
+        if (codePoint < 0) {
+            return -1;
+        }
+        int s = slot(codePoint);
+        return _keys[s] == codePoint ? _values[s] : -1;
+    }
+
+    /** Returns the slot of _keys that holds CODEPOINT, or the empty slot
+     *  where it would be inserted. */
+    private int slot(int codePoint) {
+        int mask = _keys.length - 1;
+        int s = (codePoint * 0x9E3779B9) >>> 16 & mask;
+        while (_keys[s] >= 0 && _keys[s] != codePoint) {
+            s = (s + 1) & mask;
+        }
+        return s;
     }
 }
@@ -0,0 +1,58 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Alphabet class.
+ *  @author annetta
+ */
+public class AlphabetTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkUpper() {
+        assertEquals(26, UPPER.size());
+        for (int i = 0; i < UPPER_STRING.length(); i += 1) {
+            char c = UPPER_STRING.charAt(i);
+            assertTrue(UPPER.contains(c));
+            assertEquals(i, UPPER.toInt(c));
+            assertEquals(c, UPPER.toChar(i));
+        }
+        assertFalse(UPPER.contains('a'));
+        assertFalse(UPPER.contains('\uffff'));
+        assertFalse(UPPER.contains(-1));
+    }
+
+    @Test
+    public void checkSparse() {
+        String chars = "\u4e00\u4e8c\u4e09A\ud83d\ude00";
+        Alphabet alpha = new Alphabet(chars);
+        assertEquals(5, alpha.size());
+        assertEquals(0, alpha.toInt('\u4e00'));
+        assertEquals(3, alpha.toInt('A'));
+        assertEquals(4, alpha.toInt(0x1F600));
+        assertEquals(0x1F600, alpha.toCodePoint(4));
+        assertFalse(alpha.contains('B'));
+        assertFalse(alpha.contains('\uD83D'));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkMissing() {
+        UPPER.toInt('?');
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkDuplicate() {
+        new Alphabet("ABCA");
+    }
+
+}
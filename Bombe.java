@@ -0,0 +1,363 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A search for the settings that turned a known piece of plaintext (a
+ *  crib) into part of a ciphertext, in the manner of the Turing-Welchman
+ *  bombe.  Each crib character and the ciphertext character beneath it
+ *  are joined in a menu by an edge labelled with their position.  If the
+ *  plugboard sends crib character A to X, and the rotors at position I
+ *  send X to Y, then the plugboard must send the ciphertext character
+ *  opposite A to Y.  For each rotor order and starting setting, every
+ *  partner of the most connected menu character is tried in turn, and
+ *  its consequences followed through the menu (and, since the plugboard
+ *  swaps pairs, through the partners of each character it reaches) until
+ *  some character is given two partners.  Settings at which some
+ *  partner survives are stops, reported as settings lines giving the
+ *  plugboard pairs found.  Ring settings are taken to be all 0; slow
+ *  rotors' rings only shift where their turnovers fall.
+ *  @author annetta
+ */
+class Bombe {
+
+    /** Default largest number of stops kept. */
+    static final int DEFAULT_MAX_STOPS = 1000;
+
+    /** A bombe for the rotors and alphabet of MACH that looks for CRIB
+     *  opposite the ciphertext CIPHER, starting OFFSET characters into
+     *  it.  Whitespace in CRIB and CIPHER is ignored. */
+    Bombe(Machine mach, String cipher, String crib, int offset) {
+        _alphabet = mach.alphabet();
+        _numRotors = mach.numRotors();
+        _numPawls = mach.numPawls();
+        _catalog = mach.catalog();
+        int[] text = _alphabet.indices(cipher);
+        _crib = _alphabet.indices(crib);
+        if (offset < 0 || _crib.length == 0
+            || offset + _crib.length > text.length) {
+            throw error("crib does not fit in ciphertext");
+        }
+        _offset = offset;
+        _cipher = new int[_crib.length];
+        System.arraycopy(text, offset, _cipher, 0, _crib.length);
+        buildMenu();
+        _orders = _catalog.orders(_numRotors, _numPawls);
+    }
+
+    /** Fill in the menu: for each character, the characters opposite it
+     *  in the crib and ciphertext, and the crib positions at which they
+     *  are. */
+    private void buildMenu() {
+        int size = _alphabet.size();
+        _edgeStart = new int[size + 1];
+        for (int i = 0; i < _crib.length; i += 1) {
+            _edgeStart[_crib[i] + 1] += 1;
+            _edgeStart[_cipher[i] + 1] += 1;
+        }
+        for (int c = 0; c < size; c += 1) {
+            _edgeStart[c + 1] += _edgeStart[c];
+        }
+        _edgeTo = new int[2 * _crib.length];
+        _edgeIndex = new int[2 * _crib.length];
+        int[] next = _edgeStart.clone();
+        for (int i = 0; i < _crib.length; i += 1) {
+            int a = _crib[i], b = _cipher[i];
+            _edgeTo[next[a]] = b;
+            _edgeIndex[next[a]] = i;
+            next[a] += 1;
+            _edgeTo[next[b]] = a;
+            _edgeIndex[next[b]] = i;
+            next[b] += 1;
+        }
+        _testChar = 0;
+        for (int c = 1; c < size; c += 1) {
+            if (_edgeStart[c + 1] - _edgeStart[c]
+                > _edgeStart[_testChar + 1] - _edgeStart[_testChar]) {
+                _testChar = c;
+            }
+        }
+    }
+
+    /** Return the number of rotor orders I try. */
+    int numOrders() {
+        return _orders.size();
+    }
+
+    /** Try every rotor order and starting setting on THREADS threads,
+     *  returning at most MAXSTOPS of the resulting stops, in order of
+     *  rotor order and then setting. */
+    List<String> run(int threads, int maxStops) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, (r) -> {
+            Thread t = new Thread(r, "enigma-bombe");
+            t.setDaemon(true);
+            return t;
+        });
+        _positions.reset();
+        _stops.reset();
+        long start = System.nanoTime();
+        try {
+            int size = _alphabet.size();
+            int split = _numRotors > 1 ? size : 1;
+            List<Future<List<String>>> tasks = new ArrayList<>();
+            for (String[] order : _orders) {
+                for (int first = 0; first < split; first += 1) {
+                    int slot1 = first;
+                    tasks.add(pool.submit(
+                        () -> new Sweep(order, slot1, maxStops).run()));
+                }
+            }
+            List<String> stops = new ArrayList<>();
+            for (Future<List<String>> task : tasks) {
+                for (String stop : task.get()) {
+                    if (stops.size() < maxStops) {
+                        stops.add(stop);
+                    }
+                }
+            }
+            return stops;
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            throw failure(excp);
+        } finally {
+            _elapsed = System.nanoTime() - start;
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the number of rotor settings tried by the last run. */
+    long positions() {
+        return _positions.sum();
+    }
+
+    /** Return the total number of stops found by the last run, including
+     *  those not returned. */
+    long stops() {
+        return _stops.sum();
+    }
+
+    /** Return the duration of the last run in nanoseconds. */
+    long elapsed() {
+        return _elapsed;
+    }
+
+    /** The settings of one rotor order with a given setting of slot 1,
+     *  tried by one thread on a machine of its own. */
+    private class Sweep {
+
+        /** A sweep of the settings of the rotors ORDER in which slot 1
+         *  (if any) is set to SLOT1, keeping at most MAXSTOPS stops. */
+        Sweep(String[] order, int slot1, int maxStops) {
+            _order = order;
+            _mach = new Machine(_alphabet, _numRotors, _numPawls, _catalog);
+            _mach.insertRotors(order);
+            _size = _alphabet.size();
+            _start = new int[_numRotors];
+            if (_numRotors > 1) {
+                _start[1] = slot1;
+            }
+            _current = new int[_numRotors];
+            _core = new MachineCore(_mach, _current, new int[_numRotors]);
+            _tables = new int[_crib.length * _size];
+            _pairs = new int[_size];
+            _queue = new int[_size];
+            _maxStops = maxStops;
+        }
+
+        /** Try each of my settings, returning the stops found. */
+        List<String> run() {
+            List<String> stops = new ArrayList<>();
+            long tried = 0, found = 0;
+            do {
+                tried += 1;
+                fillTables();
+                for (int x = 0; x < _size; x += 1) {
+                    if (consistent(x)) {
+                        found += 1;
+                        if (stops.size() < _maxStops) {
+                            stops.add(stop());
+                        }
+                    }
+                }
+            } while (nextStart());
+            _positions.add(tried);
+            _stops.add(found);
+            return stops;
+        }
+
+        /** Advance _start to my next setting, returning false if there
+         *  are no more.  Slots 0 and 1 stay as they are. */
+        private boolean nextStart() {
+            for (int k = _numRotors - 1; k >= 2; k -= 1) {
+                _start[k] += 1;
+                if (_start[k] < _size) {
+                    return true;
+                }
+                _start[k] = 0;
+            }
+            return false;
+        }
+
+        /** Fill _tables with the permutations applied by my rotors, less
+         *  the plugboard, at each crib position when started at _start. */
+        private void fillTables() {
+            System.arraycopy(_start, 0, _current, 0, _numRotors);
+            _core.invalidate();
+            for (int i = 0; i < _offset; i += 1) {
+                _core.stepped(_mach.step(_current));
+            }
+            for (int i = 0, t = 0; i < _crib.length; i += 1) {
+                _core.stepped(_mach.step(_current));
+                for (int x = 0; x < _size; x += 1, t += 1) {
+                    _tables[t] = _core.throughRotors(x);
+                }
+            }
+        }
+
+        /** Return true iff the plugboard may send the menu's test
+         *  character to X at the current tables, leaving the pairs that
+         *  follow in _pairs. */
+        private boolean consistent(int x) {
+            Arrays.fill(_pairs, -1);
+            _tail = 0;
+            if (!pair(_testChar, x)) {
+                return false;
+            }
+            for (int head = 0; head < _tail; head += 1) {
+                int a = _queue[head], y = _pairs[a];
+                for (int e = _edgeStart[a]; e < _edgeStart[a + 1]; e += 1) {
+                    int z = _tables[_edgeIndex[e] * _size + y];
+                    if (!pair(_edgeTo[e], z)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Record that the plugboard swaps A and B, returning false if
+         *  either already has a different partner. */
+        private boolean pair(int a, int b) {
+            if (_pairs[a] == b) {
+                return true;
+            }
+            if (_pairs[a] != -1 || _pairs[b] != -1) {
+                return false;
+            }
+            _pairs[a] = b;
+            _pairs[b] = a;
+            _queue[_tail++] = a;
+            if (a != b) {
+                _queue[_tail++] = b;
+            }
+            return true;
+        }
+
+        /** Return the settings line for the current stop. */
+        private String stop() {
+            return KeySpace.settingsLine(_order, _start, null, _pairs,
+                                         _alphabet);
+        }
+
+        /** Names of my rotors. */
+        private final String[] _order;
+        /** My machine, which holds my rotors. */
+        private final Machine _mach;
+        /** Size of the alphabet. */
+        private final int _size;
+        /** The setting being tried, by slot. */
+        private final int[] _start;
+        /** Slot settings at the crib position being tabulated. */
+        private final int[] _current;
+        /** Compiled rotors of _mach, reading _current. */
+        private final MachineCore _core;
+        /** The rotor permutation at each crib position, one row of _size
+         *  entries per position. */
+        private final int[] _tables;
+        /** Plugboard partner of each character, or -1 if unknown. */
+        private final int[] _pairs;
+        /** Characters whose partners are yet to be followed. */
+        private final int[] _queue;
+        /** Number of characters in _queue. */
+        private int _tail;
+        /** Largest number of stops kept. */
+        private final int _maxStops;
+    }
+
+    /** Search for a crib as described by ARGS:  CONFIG CIPHERTEXT CRIB,
+     *  where CONFIG is a configuration file or image, and CIPHERTEXT and
+     *  CRIB are strings.  The option --offset=K places the crib K
+     *  characters into the ciphertext; --threads=N uses N threads (by
+     *  default, one per processor); --max-stops=N prints at most N stops.
+     *  Prints the stops, then the number of settings tried and the rate
+     *  at which each thread tried them. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--offset=(\\d+) --threads=(\\d+) "
+                                + "--max-stops=(\\d+) --=(.*){3}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.Bombe [--offset=K] "
+                            + "[--threads=N] [--max-stops=N] "
+                            + "CONFIG CIPHERTEXT CRIB");
+            }
+            List<String> operands = options.get("--");
+            int threads = Main.threads(options, "--threads");
+            Bombe bombe = new Bombe(Main.configure(operands.get(0)),
+                                    operands.get(1), operands.get(2),
+                                    options.getInt("--offset", 10, 0));
+            List<String> stops =
+                bombe.run(threads, options.getInt("--max-stops", 10,
+                                                  DEFAULT_MAX_STOPS));
+            for (String stop : stops) {
+                System.out.println(stop);
+            }
+            double seconds = bombe.elapsed() * 1e-9;
+            System.out.printf("%d stops; %d rotor orders, %d settings in "
+                              + "%.3f s (%.0f settings/s per thread)%n",
+                              bombe.stops(), bombe.numOrders(),
+                              bombe.positions(), seconds,
+                              bombe.positions() / seconds / threads);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Alphabet of my machines. */
+    private final Alphabet _alphabet;
+    /** Number of rotor slots and pawls of my machines. */
+    private final int _numRotors, _numPawls;
+    /** Rotors available to my machines. */
+    private final RotorCatalog _catalog;
+    /** Crib characters, and the ciphertext characters opposite them. */
+    private final int[] _crib, _cipher;
+    /** Number of ciphertext characters preceding the crib. */
+    private final int _offset;
+    /** The rotor orders I try. */
+    private final List<String[]> _orders;
+    /** The menu.  The edges of character C are _edgeStart[C] ..
+     *  _edgeStart[C + 1] - 1, each leading to _edgeTo at crib position
+     *  _edgeIndex. */
+    private int[] _edgeStart, _edgeTo, _edgeIndex;
+    /** The menu character with the most edges, whose partners I try. */
+    private int _testChar;
+    /** Settings tried by the last run. */
+    private final LongAdder _positions = new LongAdder();
+    /** Stops found by the last run. */
+    private final LongAdder _stops = new LongAdder();
+    /** Duration of the last run in nanoseconds. */
+    private long _elapsed;
+}
@@ -0,0 +1,46 @@
+package enigma;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Bombe class.
+ *  @author annetta
+ */
+public class BombeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    private static final String PLAIN =
+        "WEATHERFORECASTFORTHEBAYOFBISCAYISCALM";
+
+    @Test
+    public void checkFindsSetting() {
+        Machine mach = navalMachine();
+        mach.insertRotors(new String[] { "B", "IV", "I" });
+        mach.setRotors("KD");
+        mach.setPlugboard(new Permutation("(WQ) (EP) (TZ) (RX)", UPPER));
+        String cipher = mach.convert(PLAIN);
+
+        Bombe bombe = new Bombe(navalMachine(), cipher, "THERFORECASTFOR", 3);
+        assertEquals(6, bombe.numOrders());
+        List<String> stops = bombe.run(2, Bombe.DEFAULT_MAX_STOPS);
+        assertEquals(6 * 26 * 26, bombe.positions());
+        assertEquals(1, bombe.stops());
+        assertEquals("* B IV I KD (EP) (RX) (TZ)", stops.get(0));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkCribTooLong() {
+        new Bombe(navalMachine(), "ABCDE", "ABCDEF", 0);
+    }
+}
@@ -0,0 +1,271 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** A machine configuration in compiled binary form: the alphabet, the
+ *  numbers of slots and pawls, and each rotor's kind, name, notches and
+ *  permutation (as a table), so that it can be loaded without parsing.
+ *  An image starts with a header of four ints: MAGIC, VERSION, and the
+ *  length and CRC-32 checksum of the directory that follows.  The
+ *  directory holds the alphabet, the numbers of slots and pawls, and
+ *  each rotor's kind and name, and the offset, length and checksum of
+ *  its record, which holds its notches and permutation.  The records
+ *  follow the directory.  A loaded image compiles and checks each rotor's
+ *  record only when the rotor is first used.  Images are made from text
+ *  configurations, which remain the source of truth.
+ *  @author annetta
+ */
+final class ConfigImage {
+
+    /** First four bytes of an image: 0x89 and then "ENG".  As for PNG
+     *  files, the first byte is not ASCII and cannot start a UTF-8
+     *  character, so no text configuration starts with MAGIC. */
+    static final int MAGIC = 0x89454E47;
+
+    /** Version of the image format. */
+    static final int VERSION = 2;
+
+    /** An image of a configuration with alphabet ALPHABET, NUMROTORS
+     *  slots, PAWLS pawls, and the rotors of CATALOG. */
+    ConfigImage(Alphabet alphabet, int numRotors, int pawls,
+                RotorCatalog catalog) {
+        _alphabet = alphabet;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _catalog = catalog;
+    }
+
+    /** Return the image in the file named NAME, reading it with a single
+     *  mapped read, or null if the file does not start with MAGIC. */
+    static ConfigImage load(String name) {
+        ByteBuffer data;
+        try (FileChannel in = FileChannel.open(Paths.get(name))) {
+            if (in.size() < HEADER_SIZE) {
+                return null;
+            }
+            data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException | IllegalArgumentException excp) {
+            throw error("could not open %s", name);
+        }
+        if (data.getInt() != MAGIC) {
+            return null;
+        }
+        try {
+            if (data.getInt() != VERSION) {
+                throw error("%s: unsupported configuration image version",
+                            name);
+            }
+            int length = data.getInt();
+            int checksum = data.getInt();
+            if (length < 0 || length > data.remaining()) {
+                throw error("%s: truncated configuration image", name);
+            }
+            ByteBuffer directory = data.slice(data.position(), length);
+            if (crc(directory) != checksum) {
+                throw error("%s: corrupt configuration image", name);
+            }
+            ByteBuffer records = data.slice(data.position() + length,
+                                            data.remaining() - length);
+            return read(name, directory, records);
+        } catch (BufferUnderflowException | IllegalArgumentException
+                 | IndexOutOfBoundsException
+                 | NegativeArraySizeException excp) {
+            throw error("%s: malformed configuration image", name);
+        }
+    }
+
+    /** Write me to the file named NAME. */
+    void write(String name) {
+        try {
+            ByteArrayOutputStream dirBytes = new ByteArrayOutputStream();
+            ByteArrayOutputStream recBytes = new ByteArrayOutputStream();
+            DataOutputStream dir = new DataOutputStream(dirBytes);
+            int[] codePoints = _alphabet.getChars().codePoints().toArray();
+            dir.writeInt(codePoints.length);
+            for (int c : codePoints) {
+                dir.writeInt(c);
+            }
+            dir.writeInt(_numRotors);
+            dir.writeInt(_pawls);
+            List<Rotor> rotors = _catalog.rotors();
+            dir.writeInt(rotors.size());
+            for (Rotor r : rotors) {
+                ByteArrayOutputStream oneRec = new ByteArrayOutputStream();
+                DataOutputStream rec = new DataOutputStream(oneRec);
+                writeString(rec, r.notches());
+                for (int p : r.permutation().forwardTable()) {
+                    rec.writeInt(p);
+                }
+                rec.flush();
+                byte[] record = oneRec.toByteArray();
+                dir.writeByte(r.reflecting() ? REFLECTOR
+                              : r.rotates() ? MOVING : FIXED);
+                writeString(dir, r.name());
+                dir.writeInt(recBytes.size());
+                dir.writeInt(record.length);
+                dir.writeInt(crc(ByteBuffer.wrap(record)));
+                recBytes.write(record);
+            }
+            dir.flush();
+            byte[] directory = dirBytes.toByteArray();
+            try (OutputStream file = new FileOutputStream(name)) {
+                DataOutputStream out = new DataOutputStream(file);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(directory.length);
+                out.writeInt(crc(ByteBuffer.wrap(directory)));
+                out.write(directory);
+                recBytes.writeTo(out);
+                out.flush();
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", name);
+        }
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return my number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return my number of pawls. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return my rotors. */
+    RotorCatalog catalog() {
+        return _catalog;
+    }
+
+    /** Return the image from the file named NAME whose checked directory
+     *  is DIRECTORY and whose rotor records are in RECORDS. */
+    private static ConfigImage read(String name, ByteBuffer directory,
+                                    ByteBuffer records) {
+        int[] codePoints = new int[directory.getInt()];
+        for (int i = 0; i < codePoints.length; i += 1) {
+            codePoints[i] = directory.getInt();
+        }
+        Alphabet alpha =
+            new Alphabet(new String(codePoints, 0, codePoints.length));
+        int numRotors = directory.getInt();
+        int pawls = directory.getInt();
+        int count = directory.getInt();
+        ArrayList<String> names = new ArrayList<>();
+        byte[] kinds = new byte[count];
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        int[] checksums = new int[count];
+        for (int k = 0; k < count; k += 1) {
+            kinds[k] = directory.get();
+            names.add(readString(directory));
+            offsets[k] = directory.getInt();
+            lengths[k] = directory.getInt();
+            checksums[k] = directory.getInt();
+            if (offsets[k] < 0 || lengths[k] < 0
+                || offsets[k] > records.limit() - lengths[k]) {
+                throw error("%s: malformed configuration image", name);
+            }
+        }
+        if (directory.hasRemaining()) {
+            throw error("%s: malformed configuration image", name);
+        }
+        IntFunction<Rotor> compiler = (k) -> {
+            ByteBuffer rec = records.slice(offsets[k], lengths[k]);
+            if (crc(rec) != checksums[k]) {
+                throw error("%s: corrupt configuration image", name);
+            }
+            try {
+                return compile(kinds[k], names.get(k), rec, alpha);
+            } catch (BufferUnderflowException
+                     | NegativeArraySizeException excp) {
+                throw error("%s: malformed configuration image", name);
+            }
+        };
+        return new ConfigImage(alpha, numRotors, pawls,
+                               new RotorCatalog(names, compiler));
+    }
+
+    /** Return the rotor of kind KIND named NAME whose record is REC,
+     *  with alphabet ALPHA. */
+    private static Rotor compile(byte kind, String name, ByteBuffer rec,
+                                 Alphabet alpha) {
+        String notches = readString(rec);
+        int[] forward = new int[alpha.size()];
+        for (int i = 0; i < forward.length; i += 1) {
+            forward[i] = rec.getInt();
+        }
+        Permutation perm = new Permutation(forward, alpha);
+        if (kind == REFLECTOR) {
+            return new Reflector(name, perm);
+        } else if (kind == FIXED) {
+            return new FixedRotor(name, perm);
+        } else if (kind == MOVING) {
+            return new MovingRotor(name, perm, notches);
+        } else {
+            throw error("malformed configuration image");
+        }
+    }
+
+    /** Return the CRC-32 checksum of the remaining bytes of DATA, which
+     *  is not changed. */
+    private static int crc(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /** Write S to OUT as its length in bytes followed by its UTF-8
+     *  encoding. */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    /** Return a string written by writeString, read from DATA. */
+    private static String readString(ByteBuffer data) {
+        byte[] utf8 = new byte[data.getInt()];
+        data.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /** Size of the header, in bytes. */
+    private static final int HEADER_SIZE = 16;
+    /** Rotor kind code for reflectors. */
+    private static final byte REFLECTOR = 'R';
+    /** Rotor kind code for fixed rotors. */
+    private static final byte FIXED = 'N';
+    /** Rotor kind code for moving rotors. */
+    private static final byte MOVING = 'M';
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+    /** My number of rotor slots. */
+    private final int _numRotors;
+    /** My number of pawls. */
+    private final int _pawls;
+    /** My rotors. */
+    private final RotorCatalog _catalog;
+}
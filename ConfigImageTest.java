@@ -0,0 +1,130 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the ConfigImage class.
+ *  @author annetta
+ */
+public class ConfigImageTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    /** Return the rotors written by writeImage. */
+    private static ArrayList<Rotor> imageRotors() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)));
+        rotors.add(new FixedRotor("Beta",
+                new Permutation(NAVALA.get("Beta"), UPPER)));
+        rotors.add(new MovingRotor("I",
+                new Permutation(NAVALA.get("I"), UPPER), "Q"));
+        return rotors;
+    }
+
+    /** Return a temporary file holding an image of a machine over UPPER
+     *  with 3 slots, 1 pawl, and the rotors of imageRotors. */
+    private static File writeImage() throws IOException {
+        File file = File.createTempFile("enigma", ".img");
+        file.deleteOnExit();
+        new ConfigImage(UPPER, 3, 1, new RotorCatalog(imageRotors()))
+            .write(file.getPath());
+        return file;
+    }
+
+    @Test
+    public void checkRoundTrip() throws IOException {
+        ArrayList<Rotor> rotors = imageRotors();
+        File file = writeImage();
+        ConfigImage image = ConfigImage.load(file.getPath());
+        assertNotNull(image);
+        assertEquals(0, image.catalog().compiled());
+        assertTrue(image.catalog().contains("Beta"));
+        Machine mach = new Machine(UPPER, 3, 1, image.catalog());
+        assertNotNull(mach.rotor("I"));
+        assertEquals(1, image.catalog().compiled());
+        assertEquals(UPPER_STRING, image.alphabet().getChars());
+        assertEquals(3, image.numRotors());
+        assertEquals(1, image.numPawls());
+        for (Rotor r : rotors) {
+            Rotor s = image.catalog().get(r.name());
+            assertEquals(r.getClass(), s.getClass());
+            assertEquals(r.notches(), s.notches());
+            assertArrayEquals(r.permutation().forwardTable(),
+                    s.permutation().forwardTable());
+        }
+    }
+
+    /** Size of an image's header, which precedes its directory. */
+    private static final int HEADER = 16;
+
+    @Test
+    public void checkCorruptDirectory() throws IOException {
+        File file = writeImage();
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[HEADER + 5] ^= 1;
+        Files.write(file.toPath(), bytes);
+        try {
+            ConfigImage.load(file.getPath());
+            fail("corrupt image loaded");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("corrupt"));
+        }
+    }
+
+    @Test
+    public void checkWrongVersion() throws IOException {
+        File file = writeImage();
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer.wrap(bytes).putInt(4, ConfigImage.VERSION + 1);
+        Files.write(file.toPath(), bytes);
+        try {
+            ConfigImage.load(file.getPath());
+            fail("image of another version loaded");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains(
+                "unsupported configuration image version"));
+        }
+    }
+
+    @Test
+    public void checkNotImage() throws IOException {
+        File file = File.createTempFile("enigma", ".conf");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(),
+                UPPER_STRING + "\n 3 1\n");
+        assertNull(ConfigImage.load(file.getPath()));
+    }
+
+    @Test
+    public void checkAlphabetStartingLikeImage() throws IOException {
+        String alpha = "ENGMABCDFHIJKLOPQRSTUVWXYZ";
+        File file = File.createTempFile("enigma", ".conf");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(),
+                alpha + "\n 3 1\n"
+                + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)"
+                + " (RX) (SZ) (TV)\n"
+                + " Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+                + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n");
+        assertNull(ConfigImage.load(file.getPath()));
+        Machine mach = Main.configure(file.getPath());
+        assertEquals(alpha, mach.alphabet().getChars());
+        Main.configure(mach, "* B Beta I AA");
+        assertEquals(5, mach.convert("HELLO").length());
+    }
+
+}
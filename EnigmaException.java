@@ -1,5 +1,7 @@
 package enigma;
 
+import java.util.concurrent.ExecutionException;
+
 /** A general-purpose error-reporting exception for this package.  All
  *  anticipated user or I/O errors should be reported through this
  *  exception, with the message being the error message to be printed.
@@ -23,4 +25,16 @@ class EnigmaException extends RuntimeException {
         return new EnigmaException(String.format(msgFormat, arguments));
     }
 
+    /** Return the exception to throw for EXCP, the failure of a task run
+     *  on another thread: its cause, if that is unchecked, and otherwise
+     *  a new exception describing the cause.  The use is 'throw
+     *  failure(excp)'. */
+    static RuntimeException failure(ExecutionException excp) {
+        Throwable cause = excp.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return error("%s", cause);
+    }
+
 }
@@ -13,6 +13,17 @@ class FixedRotor extends Rotor {
         _name = name;
     }
 
+    /** A non-moving rotor with wiring WIRING. */
+    protected FixedRotor(RotorWiring wiring) {
+        super(wiring);
+        _name = wiring.name();
+    }
+
+    @Override
+    Rotor copy() {
+        return copyState(new FixedRotor(wiring()));
+    }
+
     @Override
     public String toString() {
         return "FixedRotor " + _name;
@@ -0,0 +1,368 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only search for rotor settings, scoring each trial
+ *  decryption by its index of coincidence: the chance that two of its
+ *  characters, picked at random, are the same.  This is higher for text
+ *  in a natural language than for the near-uniform output of a wrong
+ *  setting.  A sweep over every rotor order and starting setting, with
+ *  ring settings of 0 and an empty plugboard, keeps the best-scoring
+ *  candidates; each is then improved by hill climbing, changing one
+ *  rotor's setting or ring setting at a time while the score rises.  A
+ *  ring change keeps the rotor's wiring where it was, moving only its
+ *  turnover, so the sweep need not try ring settings itself.  Both
+ *  phases run on a work-stealing pool, and each worker decrypts into
+ *  buffers of its own through Machine's batch conversion, so that a
+ *  trial allocates nothing.
+ *  @author annetta
+ */
+class HillClimb {
+
+    /** Default number of candidates kept from the sweep. */
+    static final int DEFAULT_CANDIDATES = 16;
+
+    /** A search for the settings of the rotors and alphabet of MACH that
+     *  decrypt CIPHER.  Whitespace in CIPHER is ignored. */
+    HillClimb(Machine mach, String cipher) {
+        _alphabet = mach.alphabet();
+        _numRotors = mach.numRotors();
+        _numPawls = mach.numPawls();
+        _catalog = mach.catalog();
+        _cipher = _alphabet.indices(cipher);
+        if (_cipher.length < 2) {
+            throw error("ciphertext too short");
+        }
+        _orders = _catalog.orders(_numRotors, _numPawls);
+    }
+
+    /** Return the number of rotor orders I try. */
+    int numOrders() {
+        return _orders.size();
+    }
+
+    /** Sweep every rotor order and starting setting on THREADS threads,
+     *  keeping the best CANDIDATES, then climb from each of them,
+     *  returning the distinct results, best first.  The sweep stops early if it
+     *  is still running BUDGET nanoseconds after starting (0 for no
+     *  limit); each climb always runs to its end. */
+    List<Candidate> run(int threads, long budget, int candidates) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        _trials.reset();
+        long start = System.nanoTime();
+        _deadline = budget > 0 ? start + budget : Long.MAX_VALUE;
+        try {
+            int split = _numRotors > 1 ? _alphabet.size() : 1;
+            List<Callable<List<Candidate>>> sweeps = new ArrayList<>();
+            for (String[] order : _orders) {
+                for (int first = 0; first < split; first += 1) {
+                    int slot1 = first;
+                    sweeps.add(() -> sweep(order, slot1, candidates));
+                }
+            }
+            List<Candidate> best = new ArrayList<>();
+            for (Future<List<Candidate>> sweep : pool.invokeAll(sweeps)) {
+                best.addAll(sweep.get());
+            }
+            Collections.sort(best);
+            best = best.subList(0, Math.min(candidates, best.size()));
+            List<Callable<Candidate>> climbs = new ArrayList<>();
+            for (Candidate cand : best) {
+                climbs.add(() -> climb(cand));
+            }
+            List<Candidate> result = new ArrayList<>();
+            for (Future<Candidate> climb : pool.invokeAll(climbs)) {
+                Candidate cand = climb.get();
+                if (!result.contains(cand)) {
+                    result.add(cand);
+                }
+            }
+            Collections.sort(result);
+            return result;
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            throw failure(excp);
+        } finally {
+            _elapsed = System.nanoTime() - start;
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the number of trial decryptions done by the last run. */
+    long trials() {
+        return _trials.sum();
+    }
+
+    /** Return the duration of the last run in nanoseconds. */
+    long elapsed() {
+        return _elapsed;
+    }
+
+    /** Return the index of coincidence of a text whose character counts
+     *  give SCORE, as returned by Scorer.score. */
+    double coincidence(long score) {
+        long n = _cipher.length;
+        return (double) score / (n * (n - 1));
+    }
+
+    /** Try each starting setting of the rotors ORDER in which slot 1 (if
+     *  any) is set to SLOT1, returning the best KEEP of them, unless the
+     *  deadline passes first. */
+    private List<Candidate> sweep(String[] order, int slot1, int keep) {
+        Scorer scorer = new Scorer(order);
+        int[] settings = new int[_numRotors], rings = new int[_numRotors];
+        if (_numRotors > 1) {
+            settings[1] = slot1;
+        }
+        PriorityQueue<Candidate> best =
+            new PriorityQueue<>(Collections.reverseOrder());
+        int size = _alphabet.size();
+        long tried = 0;
+        do {
+            if (System.nanoTime() > _deadline) {
+                break;
+            }
+            tried += 1;
+            long score = scorer.score(settings, rings);
+            if (best.size() < keep || score > best.peek().score) {
+                best.add(new Candidate(order, settings, rings, score));
+                if (best.size() > keep) {
+                    best.poll();
+                }
+            }
+        } while (next(settings, size));
+        _trials.add(tried);
+        return new ArrayList<>(best);
+    }
+
+    /** Advance SETTINGS, over an alphabet of SIZE characters, to the next
+     *  setting with the same settings of slots 0 and 1, returning false if
+     *  there is none. */
+    private boolean next(int[] settings, int size) {
+        for (int k = _numRotors - 1; k >= 2; k -= 1) {
+            settings[k] += 1;
+            if (settings[k] < size) {
+                return true;
+            }
+            settings[k] = 0;
+        }
+        return false;
+    }
+
+    /** Return the result of climbing from CAND: repeatedly changing the
+     *  setting or ring setting of one rotor to whatever raises the score
+     *  most, until no such change raises it. */
+    private Candidate climb(Candidate cand) {
+        Scorer scorer = new Scorer(cand.order);
+        int[] settings = cand.settings.clone(), rings = cand.rings.clone();
+        int size = _alphabet.size();
+        long best = cand.score, tried = 0;
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int k = 1; k < _numRotors; k += 1) {
+                int bestSetting = settings[k], bestRing = rings[k];
+                int setting0 = settings[k], ring0 = rings[k];
+                for (int v = 0; v < size; v += 1) {
+                    settings[k] = v;
+                    tried += 1;
+                    long score = scorer.score(settings, rings);
+                    if (score > best) {
+                        best = score;
+                        bestSetting = v;
+                        bestRing = ring0;
+                    }
+                    if (scorer.rotates(k) && v != ring0) {
+                        settings[k] = Math.floorMod(setting0 + v - ring0,
+                                                    size);
+                        rings[k] = v;
+                        tried += 1;
+                        score = scorer.score(settings, rings);
+                        if (score > best) {
+                            best = score;
+                            bestSetting = settings[k];
+                            bestRing = v;
+                        }
+                        rings[k] = ring0;
+                    }
+                }
+                settings[k] = bestSetting;
+                rings[k] = bestRing;
+                if (bestSetting != setting0 || bestRing != ring0) {
+                    improved = true;
+                }
+            }
+        }
+        _trials.add(tried);
+        return new Candidate(cand.order, settings, rings, best);
+    }
+
+    /** A rotor order and settings, with the score of its decryption. */
+    static final class Candidate implements Comparable<Candidate> {
+
+        /** The rotors ORDER at settings SETTINGS and ring settings RINGS,
+         *  indexed by slot, whose decryption scores SCORE.  SETTINGS and
+         *  RINGS are copied. */
+        Candidate(String[] order, int[] settings, int[] rings, long score) {
+            this.order = order;
+            this.settings = settings.clone();
+            this.rings = rings.clone();
+            this.score = score;
+        }
+
+        /** Return the settings line, with rotor settings in ALPHA, that
+         *  sets up my rotors. */
+        String settingsLine(Alphabet alpha) {
+            return KeySpace.settingsLine(order, settings, rings, null,
+                                         alpha);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Candidate)) {
+                return false;
+            }
+            Candidate other = (Candidate) obj;
+            return Arrays.equals(order, other.order)
+                && Arrays.equals(settings, other.settings)
+                && Arrays.equals(rings, other.rings);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(settings) * 31 + Arrays.hashCode(rings);
+        }
+
+        /** Orders candidates by decreasing score. */
+        @Override
+        public int compareTo(Candidate other) {
+            return Long.compare(other.score, score);
+        }
+
+        /** Rotor names, by slot. */
+        final String[] order;
+        /** Rotor settings and ring settings, by slot. */
+        final int[] settings, rings;
+        /** Sum over the characters of the decryption of N * (N - 1),
+         *  where N is the number of times the character occurs. */
+        final long score;
+    }
+
+    /** Trial decryptions of my ciphertext with one rotor order, using a
+     *  machine and buffers of its own. */
+    private class Scorer {
+
+        /** A scorer for the rotors ORDER. */
+        Scorer(String[] order) {
+            _mach = new Machine(_alphabet, _numRotors, _numPawls, _catalog);
+            _mach.insertRotors(order);
+            _text = new int[_cipher.length];
+            _counts = new int[_alphabet.size()];
+        }
+
+        /** Return true iff the rotor in slot K moves. */
+        boolean rotates(int k) {
+            return _mach.rotates(k);
+        }
+
+        /** Decrypt my ciphertext with my rotors at SETTINGS and ring
+         *  settings RINGS, returning the sum over each character of
+         *  N * (N - 1), where N is the number of times it occurs. */
+        long score(int[] settings, int[] rings) {
+            _mach.setRotors(settings, rings);
+            _mach.convert(_cipher, _text, 0, _text.length);
+            int[] counts = _counts;
+            Arrays.fill(counts, 0);
+            for (int c : _text) {
+                counts[c] += 1;
+            }
+            long score = 0;
+            for (int n : counts) {
+                score += (long) n * (n - 1);
+            }
+            return score;
+        }
+
+        /** My machine. */
+        private final Machine _mach;
+        /** Decryption of the ciphertext. */
+        private final int[] _text;
+        /** Number of occurrences of each character in _text. */
+        private final int[] _counts;
+    }
+
+    /** Search for the settings that decrypt a ciphertext, as described by
+     *  ARGS:  CONFIG CIPHERTEXT, where CONFIG is a configuration file or
+     *  image.  The option --threads=N uses N threads (by default, one per
+     *  processor); --time-budget=SECONDS stops the sweep after SECONDS
+     *  seconds; --candidates=N climbs from the best N settings found by
+     *  the sweep.  Prints the index of coincidence and settings line of
+     *  each result, best first, then the number of trial decryptions and
+     *  the rate at which each thread did them. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--threads=(\\d+) --time-budget=(\\d+) "
+                                + "--candidates=(\\d+) --=(.*){2}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.HillClimb [--threads=N] "
+                            + "[--time-budget=SECONDS] [--candidates=N] "
+                            + "CONFIG CIPHERTEXT");
+            }
+            List<String> operands = options.get("--");
+            int threads = Main.threads(options, "--threads");
+            long budget = options.getLong("--time-budget", 10, 0);
+            HillClimb search =
+                new HillClimb(Main.configure(operands.get(0)),
+                              operands.get(1));
+            List<Candidate> results =
+                search.run(threads, budget * 1_000_000_000L,
+                           Math.max(1, options.getInt("--candidates", 10,
+                                                      DEFAULT_CANDIDATES)));
+            for (Candidate cand : results) {
+                System.out.printf("%.5f %s%n", search.coincidence(cand.score),
+                                  cand.settingsLine(search._alphabet));
+            }
+            double seconds = search.elapsed() * 1e-9;
+            System.out.printf("%d rotor orders, %d trials in %.3f s "
+                              + "(%.0f trials/s per thread)%n",
+                              search.numOrders(), search.trials(), seconds,
+                              search.trials() / seconds / threads);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Alphabet of my machines. */
+    private final Alphabet _alphabet;
+    /** Number of rotor slots and pawls of my machines. */
+    private final int _numRotors, _numPawls;
+    /** Rotors available to my machines. */
+    private final RotorCatalog _catalog;
+    /** The ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+    /** The rotor orders I try. */
+    private final List<String[]> _orders;
+    /** Trial decryptions done by the last run. */
+    private final LongAdder _trials = new LongAdder();
+    /** Time after which the sweep stops, from System.nanoTime. */
+    private volatile long _deadline;
+    /** Duration of the last run in nanoseconds. */
+    private long _elapsed;
+}
@@ -0,0 +1,44 @@
+package enigma;
+
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the HillClimb class.
+ *  @author annetta
+ */
+public class HillClimbTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkRecoversSettings() {
+        Machine mach = navalMachine();
+        mach.insertRotors(new String[] { "B", "IV", "I" });
+        mach.setRotors("KD");
+        mach.setRotorRing("CF");
+        String cipher = mach.convert(DICKENS);
+
+        HillClimb search = new HillClimb(navalMachine(), cipher);
+        assertEquals(6, search.numOrders());
+        List<HillClimb.Candidate> results = search.run(2, 0, 4);
+        assertTrue(search.trials() >= 6 * 26 * 26);
+        HillClimb.Candidate best = results.get(0);
+        assertTrue(search.coincidence(best.score) > 0.06);
+        Machine check = navalMachine();
+        check.insertRotors(best.order);
+        check.setRotors(best.settings, best.rings);
+        assertEquals(DICKENS, check.convert(cipher));
+        assertEquals(results.size(), new HashSet<>(results).size());
+    }
+}
@@ -0,0 +1,305 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+import static enigma.EnigmaException.*;
+
+/** The settings of a family of machines that a search may try: every
+ *  rotor order that their rotors allow (see RotorCatalog.orders), every
+ *  setting of the rotors in slots 1 and up, and every ring setting of
+ *  the rightmost few slots, with the other ring settings 0.  Each
+ *  setting is encoded as a key, a number in the range 0 .. size() - 1,
+ *  whose digits are the index of the rotor order, then the rotor
+ *  settings from slot 1 rightwards, then the ring settings, the last
+ *  varying fastest.  Keys may be enumerated by a stream, which splits
+ *  evenly into ranges of keys for parallel use.
+ *  @author annetta
+ */
+final class KeySpace {
+
+    /** The settings of machines configured like MODEL (with its
+     *  alphabet, number of slots and pawls, and rotor catalog) in which
+     *  the ring settings of the rightmost RINGSLOTS slots vary. */
+    KeySpace(Machine model, int ringSlots) {
+        _size = model.alphabet().size();
+        _numRotors = model.numRotors();
+        if (ringSlots < 0 || ringSlots > _numRotors - 1) {
+            throw error("ring slots must be between 0 and %d",
+                        _numRotors - 1);
+        }
+        _ringSlots = ringSlots;
+        _orders = model.catalog().orders(_numRotors, model.numPawls());
+        try {
+            _settingCount = power(_size, _numRotors - 1);
+            _ringCount = power(_size, ringSlots);
+            _count = Math.multiplyExact(
+                Math.multiplyExact((long) _orders.size(), _settingCount),
+                _ringCount);
+        } catch (ArithmeticException excp) {
+            throw error("too many settings");
+        }
+    }
+
+    /** Return BASE to the power EXP, throwing ArithmeticException if it
+     *  overflows. */
+    private static long power(int base, int exp) {
+        long result = 1;
+        for (int k = 0; k < exp; k += 1) {
+            result = Math.multiplyExact(result, base);
+        }
+        return result;
+    }
+
+    /** Return the number of keys. */
+    long size() {
+        return _count;
+    }
+
+    /** Return the number of rotor orders. */
+    int numOrders() {
+        return _orders.size();
+    }
+
+    /** Return the number of slots whose ring settings vary. */
+    int ringSlots() {
+        return _ringSlots;
+    }
+
+    /** Return the rotor names, by slot, of KEY.  The result must not be
+     *  modified. */
+    String[] order(long key) {
+        check(key);
+        return _orders.get((int) (key / (_settingCount * _ringCount)));
+    }
+
+    /** Fill SETTINGS and RINGS, indexed by slot, with the rotor settings
+     *  and ring settings of KEY. */
+    void decode(long key, int[] settings, int[] rings) {
+        check(key);
+        long rest = key % (_settingCount * _ringCount);
+        for (int k = _numRotors - 1; k >= _numRotors - _ringSlots; k -= 1) {
+            rings[k] = (int) (rest % _size);
+            rest /= _size;
+        }
+        for (int k = _numRotors - _ringSlots - 1; k >= 0; k -= 1) {
+            rings[k] = 0;
+        }
+        for (int k = _numRotors - 1; k >= 1; k -= 1) {
+            settings[k] = (int) (rest % _size);
+            rest /= _size;
+        }
+        settings[0] = 0;
+    }
+
+    /** Return the key for the rotor names ORDER, by slot, with rotor
+     *  settings SETTINGS and ring settings RINGS, or -1 if there is
+     *  none. */
+    long encode(String[] order, int[] settings, int[] rings) {
+        int index = -1;
+        for (int i = 0; i < _orders.size(); i += 1) {
+            if (Arrays.equals(_orders.get(i), order)) {
+                index = i;
+                break;
+            }
+        }
+        if (index == -1) {
+            return -1;
+        }
+        long key = index;
+        for (int k = 1; k < _numRotors; k += 1) {
+            if (settings[k] < 0 || settings[k] >= _size) {
+                return -1;
+            }
+            key = key * _size + settings[k];
+        }
+        for (int k = 0; k < _numRotors; k += 1) {
+            boolean varies = k >= _numRotors - _ringSlots;
+            if (varies && (rings[k] < 0 || rings[k] >= _size)
+                || !varies && rings[k] != 0) {
+                return -1;
+            }
+            if (varies) {
+                key = key * _size + rings[k];
+            }
+        }
+        return key;
+    }
+
+    /** Set MACH, which must be configured like my model and have its
+     *  rotors inserted, to KEY, leaving its plugboard as it is.  Its
+     *  rotors are replaced only if they differ from KEY's, so that
+     *  consecutive keys with the same rotor order allocate nothing.
+     *  SETTINGS and RINGS are scratch arrays with one element per
+     *  slot. */
+    void apply(long key, Machine mach, int[] settings, int[] rings) {
+        String[] order = order(key);
+        for (int k = 0; k < order.length; k += 1) {
+            if (!mach.getRotor(k).name().equals(order[k])) {
+                mach.insertRotors(order);
+                break;
+            }
+        }
+        decode(key, settings, rings);
+        mach.setRotors(settings, rings);
+    }
+
+    /** Return the settings line, with my model's alphabet ALPHA, for
+     *  KEY. */
+    String settingsLine(long key, Alphabet alpha) {
+        int[] settings = new int[_numRotors], rings = new int[_numRotors];
+        decode(key, settings, rings);
+        return settingsLine(order(key), settings,
+                            _ringSlots > 0 ? rings : null, null, alpha);
+    }
+
+    /** Return the settings line, with alphabet ALPHA, that inserts the
+     *  rotors ORDER and sets them to SETTINGS, indexed by slot.  Unless
+     *  RINGS is null, it sets the rings to RINGS, indexed by slot.
+     *  Unless PAIRS is null, its plugboard swaps each character C with
+     *  PAIRS[C] (an index, or -1 for none).  This is the one place the
+     *  searches format settings lines. */
+    static String settingsLine(String[] order, int[] settings, int[] rings,
+                               int[] pairs, Alphabet alpha) {
+        StringBuilder line = new StringBuilder("*");
+        for (String name : order) {
+            line.append(' ').append(name);
+        }
+        line.append(' ');
+        for (int k = 1; k < order.length; k += 1) {
+            line.appendCodePoint(alpha.toCodePoint(settings[k]));
+        }
+        if (rings != null) {
+            line.append(' ');
+            for (int k = 1; k < order.length; k += 1) {
+                line.appendCodePoint(alpha.toCodePoint(rings[k]));
+            }
+        }
+        if (pairs != null) {
+            for (int a = 0; a < pairs.length; a += 1) {
+                if (pairs[a] > a) {
+                    line.append(" (").appendCodePoint(alpha.toCodePoint(a))
+                        .appendCodePoint(alpha.toCodePoint(pairs[a]))
+                        .append(')');
+                }
+            }
+        }
+        return line.toString();
+    }
+
+    /** Return a spliterator over the keys FROM .. size() - 1, for
+     *  resuming an enumeration. */
+    Spliterator.OfLong spliterator(long from) {
+        if (from < 0 || from > _count) {
+            throw error("no key %d", from);
+        }
+        return new Keys(from, _count);
+    }
+
+    /** Return a spliterator over all my keys. */
+    Spliterator.OfLong spliterator() {
+        return spliterator(0);
+    }
+
+    /** Return a sequential stream of all my keys. */
+    LongStream stream() {
+        return StreamSupport.longStream(spliterator(), false);
+    }
+
+    /** Return a parallel stream of all my keys. */
+    LongStream parallelStream() {
+        return StreamSupport.longStream(spliterator(), true);
+    }
+
+    /** Return a parallel stream of the keys FROM .. size() - 1. */
+    LongStream parallelStream(long from) {
+        return StreamSupport.longStream(spliterator(from), true);
+    }
+
+    /** Throw an exception if KEY is not one of mine. */
+    private void check(long key) {
+        if (key < 0 || key >= _count) {
+            throw error("no key %d", key);
+        }
+    }
+
+    /** A spliterator over a range of keys, which splits in half. */
+    private static final class Keys implements Spliterator.OfLong {
+
+        /** A spliterator over keys LO .. HI - 1. */
+        Keys(long lo, long hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            if (_lo >= _hi) {
+                return false;
+            }
+            action.accept(_lo);
+            _lo += 1;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(LongConsumer action) {
+            long hi = _hi;
+            for (long key = _lo; key < hi; key += 1) {
+                action.accept(key);
+            }
+            _lo = hi;
+        }
+
+        @Override
+        public Spliterator.OfLong trySplit() {
+            long mid = _lo + (_hi - _lo) / 2;
+            if (mid - _lo < MIN_SPLIT) {
+                return null;
+            }
+            Keys prefix = new Keys(_lo, mid);
+            _lo = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return _hi - _lo;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | SORTED | SIZED | SUBSIZED
+                | NONNULL | IMMUTABLE;
+        }
+
+        @Override
+        public Comparator<? super Long> getComparator() {
+            return null;
+        }
+
+        /** Smallest range worth handing to another thread. */
+        private static final long MIN_SPLIT = 64;
+
+        /** The next key, and the key after the last. */
+        private long _lo, _hi;
+    }
+
+    /** Size of the alphabet. */
+    private final int _size;
+    /** Number of rotor slots, including the reflector. */
+    private final int _numRotors;
+    /** Number of rightmost slots whose ring settings vary. */
+    private final int _ringSlots;
+    /** The rotor orders, by index. */
+    private final List<String[]> _orders;
+    /** Number of combinations of rotor settings, and of ring settings. */
+    private final long _settingCount, _ringCount;
+    /** Number of keys. */
+    private final long _count;
+}
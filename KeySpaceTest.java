@@ -0,0 +1,106 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeySpace class.
+ *  @author annetta
+ */
+public class KeySpaceTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkEncoding() {
+        KeySpace keys = new KeySpace(navalMachine(), 1);
+        assertEquals(6, keys.numOrders());
+        assertEquals(6L * 26 * 26 * 26, keys.size());
+        int[] settings = new int[3], rings = new int[3];
+        for (long key = 0; key < keys.size(); key += 997) {
+            keys.decode(key, settings, rings);
+            assertEquals(0, rings[1]);
+            assertEquals(key, keys.encode(keys.order(key), settings, rings));
+        }
+        long key = keys.encode(new String[] { "B", "IV", "I" },
+                               new int[] { 0, 10, 3 }, new int[] { 0, 0, 5 });
+        assertEquals("* B IV I KD AF", keys.settingsLine(key, UPPER));
+        assertEquals(-1, keys.encode(new String[] { "B", "IV", "I" },
+                                     new int[] { 0, 10, 3 },
+                                     new int[] { 0, 2, 5 }));
+    }
+
+    @Test
+    public void checkSettingsLine() {
+        String[] order = { "B", "IV", "I" };
+        int[] settings = { 0, 10, 3 }, rings = { 0, 2, 5 };
+        int[] pairs = new int[26];
+        Arrays.fill(pairs, -1);
+        pairs[4] = 15;
+        pairs[15] = 4;
+        pairs[0] = 0;
+        assertEquals("* B IV I KD",
+                     KeySpace.settingsLine(order, settings, null, null,
+                                           UPPER));
+        assertEquals("* B IV I KD CF",
+                     KeySpace.settingsLine(order, settings, rings, null,
+                                           UPPER));
+        assertEquals("* B IV I KD (EP)",
+                     KeySpace.settingsLine(order, settings, null, pairs,
+                                           UPPER));
+    }
+
+    @Test
+    public void checkSplitting() {
+        KeySpace keys = new KeySpace(navalMachine(), 0);
+        Spliterator.OfLong all = keys.spliterator();
+        assertTrue(all.hasCharacteristics(Spliterator.SUBSIZED));
+        Spliterator.OfLong prefix = all.trySplit();
+        assertEquals(keys.size(),
+                     prefix.estimateSize() + all.estimateSize());
+        long[] first = new long[1];
+        assertTrue(all.tryAdvance((long k) -> first[0] = k));
+        assertEquals(prefix.estimateSize(), first[0]);
+
+        assertEquals(keys.size() * (keys.size() - 1) / 2,
+                     keys.parallelStream().sum());
+        assertEquals(10, keys.parallelStream(keys.size() - 10).count());
+        assertEquals(0, keys.parallelStream(keys.size()).count());
+    }
+
+    @Test
+    public void checkSearch() {
+        Machine mach = navalMachine();
+        mach.insertRotors(new String[] { "B", "III", "I" });
+        mach.setRotors("QV");
+        mach.setRotorRing("AE");
+        String cipher = mach.convert("ATTACKATDAWN");
+
+        KeySpace keys = new KeySpace(navalMachine(), 1);
+        ThreadLocal<Machine> machines = ThreadLocal.withInitial(() -> {
+            Machine m = navalMachine();
+            m.insertRotors(keys.order(0));
+            return m;
+        });
+        long[] found = keys.parallelStream().filter(key -> {
+            Machine m = machines.get();
+            keys.apply(key, m, new int[3], new int[3]);
+            return m.convert(cipher).equals("ATTACKATDAWN");
+        }).toArray();
+        assertTrue(found.length >= 1);
+        long expected = keys.encode(new String[] { "B", "III", "I" },
+                                    new int[] { 0, 16, 21 },
+                                    new int[] { 0, 0, 4 });
+        assertTrue(Arrays.binarySearch(found, expected) >= 0);
+    }
+}
@@ -0,0 +1,527 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Many machines with the same rotors, differing in their rotor
+ *  settings, ring settings and plugboards, run in lockstep over the same
+ *  text.  Each machine is a lane.  The state of the lanes is kept as
+ *  arrays indexed by lane (one array per rotor slot), and each step of
+ *  the conversion, such as passing through one rotor, is done for all
+ *  lanes in one loop of table lookups, so that the lanes' work is laid
+ *  out for the processor to overlap.  Where LaneVectors has been compiled
+ *  (make vector) and the incubating module it needs is present (java
+ *  --add-modules jdk.incubator.vector), those lookups are done as vector
+ *  gathers, and otherwise by plain loops.  Lanes convert exactly as
+ *  separate Machines would.
+ *  @author annetta
+ */
+final class LaneEngine {
+
+    /** An engine with LANES lanes, each holding the rotors now in the
+     *  slots of MACH, with the settings, ring settings and plugboard of
+     *  MACH. */
+    LaneEngine(Machine mach, int lanes) {
+        this(mach, lanes, VECTORS);
+    }
+
+    /** An engine as for LaneEngine(MACH, LANES) that uses vector gathers
+     *  iff VECTOR and they are available. */
+    LaneEngine(Machine mach, int lanes, boolean vector) {
+        if (lanes < 1) {
+            throw error("need at least one lane");
+        }
+        MachineState state = mach.snapshot();
+        _lanes = lanes;
+        _size = mach.alphabet().size();
+        _numRotors = mach.numRotors();
+        _names = new String[_numRotors];
+        _forward = new int[_numRotors][];
+        _inverse = new int[_numRotors][];
+        _notchMasks = new long[_numRotors][];
+        _rotates = new boolean[_numRotors];
+        for (int k = 0; k < _numRotors; k += 1) {
+            Rotor r = mach.getRotor(k);
+            Permutation perm = r.permutation();
+            _names[k] = r.name();
+            _forward[k] = new int[_size];
+            _inverse[k] = new int[_size];
+            for (int c = 0; c < _size; c += 1) {
+                _forward[k][c] = perm.permute(c);
+                _inverse[k][c] = perm.invert(c);
+            }
+            _notchMasks[k] = r.notchMask();
+            _rotates[k] = mach.rotates(k);
+        }
+        if (_size <= Rotor.MAX_SHIFTED_SIZE) {
+            _shiftedForward = new int[_numRotors][];
+            _shiftedBackward = new int[_numRotors][];
+            for (int k = 0; k < _numRotors; k += 1) {
+                Rotor r = mach.getRotor(k);
+                _shiftedForward[k] = widen(r.shiftedForward());
+                _shiftedBackward[k] = widen(r.shiftedBackward());
+            }
+        } else {
+            _shiftedForward = _shiftedBackward = null;
+        }
+        _pawls = mach.numPawls();
+        int split = _numRotors - 1;
+        if (split > 0 && _rotates[split - 1]) {
+            split -= 1;
+        }
+        _split = split >= 2 ? split : 0;
+        _positions = new int[_numRotors][lanes];
+        _offsets = new int[_numRotors][lanes];
+        _stepping = new boolean[_numRotors][lanes];
+        _plugboards = new int[_size * lanes];
+        _signal = new int[lanes];
+        _inner = new int[_split > 0 ? _size * lanes : 0];
+        _innerValid = new boolean[lanes];
+        _vector = vector && VECTORS;
+        _index = new int[_vector ? lanes : 0];
+        _innerBases = new int[_vector && _split > 0 ? lanes : 0];
+        for (int lane = 0; lane < _innerBases.length; lane += 1) {
+            _innerBases[lane] = lane * _size;
+        }
+        for (int lane = 0; lane < lanes; lane += 1) {
+            setLane(lane, state);
+        }
+    }
+
+    /** Return the number of lanes. */
+    int lanes() {
+        return _lanes;
+    }
+
+    /** Return true iff I convert by vector gathers. */
+    boolean vector() {
+        return _vector;
+    }
+
+    /** Set lane LANE to STATE, a snapshot of a machine with the same
+     *  rotors in its slots as mine. */
+    void setLane(int lane, MachineState state) {
+        if (state.numRotors() != _numRotors || !state.hasRotors(_names)) {
+            throw error("state has different rotors");
+        }
+        for (int k = 0; k < _numRotors; k += 1) {
+            _positions[k][lane] = state.position(k);
+            _offsets[k][lane] =
+                Math.floorMod(state.position(k) - state.ring(k), _size);
+        }
+        Permutation plugboard = state.plugboard();
+        for (int c = 0; c < _size; c += 1) {
+            _plugboards[c * _lanes + lane] = plugboard.permute(c);
+        }
+        _innerValid[lane] = false;
+    }
+
+    /** Return the unsigned values of TABLE. */
+    private static int[] widen(byte[] table) {
+        int[] result = new int[table.length];
+        for (int i = 0; i < table.length; i += 1) {
+            result[i] = table[i] & 0xff;
+        }
+        return result;
+    }
+
+    /** Return the setting of the rotor in SLOT of lane LANE. */
+    int position(int lane, int slot) {
+        return _positions[slot][lane];
+    }
+
+    /** Advance every lane and convert C (an alphabet index) with each,
+     *  leaving the result for lane L in OUT[L]. */
+    void convert(int c, int[] out) {
+        convert(c, out, 0);
+    }
+
+    /** Convert the LEN alphabet indices IN[OFF .. OFF+LEN-1] with every
+     *  lane, leaving the result of converting IN[OFF + I] with lane L in
+     *  OUT[I * lanes() + L]. */
+    void convert(int[] in, int off, int len, int[] out) {
+        if (out.length < (long) len * _lanes) {
+            throw error("output too small");
+        }
+        for (int i = 0; i < len; i += 1) {
+            convert(in[off + i], out, i * _lanes);
+        }
+    }
+
+    /** Advance every lane and convert C with each, leaving the result for
+     *  lane L in OUT[START + L]. */
+    private void convert(int c, int[] out, int start) {
+        if (c < 0 || c >= _size) {
+            throw new EnigmaException("MSG NOT IN ALPHABETE");
+        }
+        step();
+        final int lanes = _lanes, n = _size;
+        int[] signal = _signal;
+        System.arraycopy(_plugboards, c * lanes, signal, 0, lanes);
+        int split = _split;
+        for (int k = _numRotors - 1; k >= split; k -= 1) {
+            through(k, true, signal);
+        }
+        if (split > 0) {
+            updateInner();
+            int[] inner = _inner;
+            int lane = _vector
+                ? GATHERS.based(inner, _innerBases, signal, _index) : 0;
+            for (; lane < lanes; lane += 1) {
+                signal[lane] = inner[lane * n + signal[lane]];
+            }
+        }
+        for (int k = Math.max(split, 1); k < _numRotors; k += 1) {
+            through(k, false, signal);
+        }
+        int[] plugboards = _plugboards;
+        for (int lane = 0; lane < lanes; lane += 1) {
+            out[start + lane] = plugboards[signal[lane] * lanes + lane];
+        }
+    }
+
+    /** Pass SIGNAL[L] for each lane L through the rotor in SLOT, from
+     *  right to left if FORWARD, and otherwise from left to right. */
+    private void through(int slot, boolean forward, int[] signal) {
+        final int n = _size;
+        int[] offsets = _offsets[slot];
+        int[][] shifted = forward ? _shiftedForward : _shiftedBackward;
+        if (shifted != null) {
+            int[] table = shifted[slot];
+            int lane = _vector
+                ? GATHERS.shifted(table, n, offsets, signal, _index) : 0;
+            for (; lane < signal.length; lane += 1) {
+                signal[lane] = table[offsets[lane] * n + signal[lane]];
+            }
+            return;
+        }
+        int[] table = forward ? _forward[slot] : _inverse[slot];
+        int lane = _vector
+            ? GATHERS.offset(table, n, offsets, signal, _index) : 0;
+        for (; lane < signal.length; lane += 1) {
+            int off = offsets[lane];
+            int c = signal[lane] + off;
+            if (c >= n) {
+                c -= n;
+            }
+            c = table[c] - off;
+            signal[lane] = c < 0 ? c + n : c;
+        }
+    }
+
+    /** Recompute the combined conversion by slots 0 .. _split - 1 of each
+     *  lane whose rotors there have moved since it was last computed. */
+    private void updateInner() {
+        final int n = _size;
+        for (int lane = 0; lane < _lanes; lane += 1) {
+            if (_innerValid[lane]) {
+                continue;
+            }
+            for (int x = 0; x < n; x += 1) {
+                int c = x;
+                for (int k = _split - 1; k >= 0; k -= 1) {
+                    c = convert(_forward[k], _offsets[k][lane], c);
+                }
+                for (int k = 1; k < _split; k += 1) {
+                    c = convert(_inverse[k], _offsets[k][lane], c);
+                }
+                _inner[lane * n + x] = c;
+            }
+            _innerValid[lane] = true;
+        }
+    }
+
+    /** Return the conversion of C by the rotor wiring TABLE, where the
+     *  rotor's setting less its ring setting is OFF. */
+    private int convert(int[] table, int off, int c) {
+        final int n = _size;
+        c += off;
+        if (c >= n) {
+            c -= n;
+        }
+        c = table[c] - off;
+        return c < 0 ? c + n : c;
+    }
+
+    /** Advance the rotors of every lane as Machine.step does. */
+    private void step() {
+        final int lanes = _lanes, n = _size;
+        int last = _numRotors - 1;
+        Arrays.fill(_stepping[last], true);
+        for (int i = _numRotors - _pawls; i < last; i += 1) {
+            boolean[] left = _stepping[i - 1], here = _stepping[i];
+            int[] posHere = _positions[i], posRight = _positions[i + 1];
+            long[] maskHere = _notchMasks[i], maskRight = _notchMasks[i + 1];
+            boolean leftRotates = _rotates[i - 1];
+            for (int lane = 0; lane < lanes; lane += 1) {
+                if (atNotch(maskRight, posRight[lane])) {
+                    here[lane] = true;
+                }
+                if (leftRotates && atNotch(maskHere, posHere[lane])) {
+                    left[lane] = true;
+                }
+                if (left[lane]) {
+                    here[lane] = true;
+                }
+            }
+        }
+        for (int i = last; i >= 0; i -= 1) {
+            boolean[] stepping = _stepping[i];
+            if (!_rotates[i]) {
+                Arrays.fill(stepping, false);
+                continue;
+            }
+            int[] positions = _positions[i], offsets = _offsets[i];
+            for (int lane = 0; lane < lanes; lane += 1) {
+                if (stepping[lane]) {
+                    stepping[lane] = false;
+                    if (i < _split) {
+                        _innerValid[lane] = false;
+                    }
+                    int p = positions[lane] + 1;
+                    positions[lane] = p == n ? 0 : p;
+                    int d = offsets[lane] + 1;
+                    offsets[lane] = d == n ? 0 : d;
+                }
+            }
+        }
+    }
+
+    /** Return true iff P is a notch position in MASK. */
+    private static boolean atNotch(long[] mask, int p) {
+        return (mask[p >>> 6] & (1L << p)) != 0;
+    }
+
+    /** Compare the time taken to convert a random text with many random
+     *  settings of one rotor order, as described by ARGS: CONFIG, a
+     *  configuration file or image.  The option --lanes=N uses N settings
+     *  (default 1024), and --length=L a text of L characters (default
+     *  4096).  The conversions are done by a LaneEngine with plain loops,
+     *  by one with vector gathers if they are available, and by N
+     *  Machines, several times over so that all are compiled, and the
+     *  results checked against each other.  This is a rough stand-in for
+     *  a JMH benchmark, which this project has no harness for: it does
+     *  its own warm-up and keeps the best of a few rounds, and its
+     *  figures are only a guide to which path is faster. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--lanes=(\\d+) --length=(\\d+) --=(.*)",
+                                args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.LaneEngine [--lanes=N] "
+                            + "[--length=L] CONFIG");
+            }
+            int lanes = Math.max(1, options.getInt("--lanes", 10, 1024));
+            int length = Math.max(1, options.getInt("--length", 10, 4096));
+            Machine model = Main.configure(options.getFirst("--"));
+            List<String[]> orders =
+                model.catalog().orders(model.numRotors(), model.numPawls());
+            if (orders.isEmpty()) {
+                throw error("configuration allows no rotor order");
+            }
+            benchmark(model, orders.get(0), lanes, length);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Number of times each benchmark is run. */
+    private static final int ROUNDS = 5;
+
+    /** Time the conversion of a random text of LENGTH characters with
+     *  LANES random settings of the rotors ORDER of a copy of MODEL, by a
+     *  LaneEngine and by separate Machines, printing the results. */
+    private static void benchmark(Machine model, String[] order,
+                                  int lanes, int length) {
+        Random random = new Random(61);
+        int size = model.alphabet().size();
+        Machine[] machines = new Machine[lanes];
+        MachineState[] states = new MachineState[lanes];
+        int[] settings = new int[model.numRotors()];
+        int[] rings = new int[model.numRotors()];
+        for (int lane = 0; lane < lanes; lane += 1) {
+            machines[lane] = new Machine(model);
+            machines[lane].insertRotors(order);
+            for (int k = 1; k < settings.length; k += 1) {
+                settings[k] = random.nextInt(size);
+                rings[k] = random.nextInt(size);
+            }
+            machines[lane].setRotors(settings, rings);
+            states[lane] = machines[lane].snapshot();
+        }
+        int[] text = new int[length];
+        for (int i = 0; i < length; i += 1) {
+            text[i] = random.nextInt(size);
+        }
+        LaneEngine[] engines = {
+            new LaneEngine(machines[0], lanes, false),
+            new LaneEngine(machines[0], lanes, true)
+        };
+        int[] laneOut = new int[length * lanes];
+        int[] vectorOut = new int[length * lanes];
+        int[] machineOut = new int[length];
+        long[] engineTimes = { Long.MAX_VALUE, Long.MAX_VALUE };
+        long machineTime = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round += 1) {
+            for (int e = 0; e < engines.length; e += 1) {
+                if (e > 0 && !engines[e].vector()) {
+                    break;
+                }
+                for (int lane = 0; lane < lanes; lane += 1) {
+                    engines[e].setLane(lane, states[lane]);
+                }
+                int[] out = e == 0 ? laneOut : vectorOut;
+                long start = System.nanoTime();
+                engines[e].convert(text, 0, length, out);
+                engineTimes[e] =
+                    Math.min(engineTimes[e], System.nanoTime() - start);
+            }
+            if (engines[1].vector() && !Arrays.equals(laneOut, vectorOut)) {
+                throw error("vector gathers differ from plain loops");
+            }
+
+            long elapsed = 0;
+            for (int lane = 0; lane < lanes; lane += 1) {
+                machines[lane].restore(states[lane]);
+                long start = System.nanoTime();
+                machines[lane].convert(text, machineOut, 0, length);
+                elapsed += System.nanoTime() - start;
+                for (int i = 0; i < length; i += 1) {
+                    if (machineOut[i] != laneOut[i * lanes + lane]) {
+                        throw error("lane %d differs at %d", lane, i);
+                    }
+                }
+            }
+            machineTime = Math.min(machineTime, elapsed);
+        }
+        double chars = (double) lanes * length;
+        System.out.printf("%d lanes x %d characters of %s%n", lanes, length,
+                          String.join(" ", order));
+        report("LaneEngine, loops:", engineTimes[0], chars, machineTime);
+        if (engines[1].vector()) {
+            System.out.printf("(%d lanes per vector)%n",
+                              GATHERS.width());
+            report("LaneEngine, vectors:", engineTimes[1], chars,
+                   machineTime);
+        } else {
+            System.out.println("LaneEngine, vectors: not available "
+                               + "(needs make vector and --add-modules "
+                               + "jdk.incubator.vector)");
+        }
+        report("Machines:", machineTime, chars, machineTime);
+    }
+
+    /** Print the time taken, TIME nanoseconds, to convert CHARS
+     *  characters, labelled LABEL, and the speedup over BASELINE
+     *  nanoseconds. */
+    private static void report(String label, long time, double chars,
+                               long baseline) {
+        System.out.printf("%-20s %.3f s (%.1f M characters/s, "
+                          + "speedup %.2f)%n", label, time * 1e-9,
+                          chars / time * 1e3, (double) baseline / time);
+    }
+
+    /** The table lookups of a LaneEngine done as vector gathers, a
+     *  vector's width of lanes at a time.  Each method converts the
+     *  leading lanes that fill whole vectors and returns the number of
+     *  them, leaving the rest to the caller.  INDEX is a scratch array
+     *  with an element per lane. */
+    interface Gathers {
+        /** Return the number of lanes in a vector. */
+        int width();
+
+        /** Replace SIGNAL[L] with TABLE[OFFSETS[L] * N + SIGNAL[L]] for
+         *  the leading lanes L, as through does with the tables of
+         *  Rotor.shiftedForward and Rotor.shiftedBackward. */
+        int shifted(int[] table, int n, int[] offsets, int[] signal,
+                    int[] index);
+
+        /** Replace SIGNAL[L] with the conversion of SIGNAL[L] by the
+         *  rotor wiring TABLE, of size N, at offset OFFSETS[L] (as for
+         *  convert), for the leading lanes L. */
+        int offset(int[] table, int n, int[] offsets, int[] signal,
+                   int[] index);
+
+        /** Replace SIGNAL[L] with TABLE[BASES[L] + SIGNAL[L]] for the
+         *  leading lanes L, as convert does with _inner. */
+        int based(int[] table, int[] bases, int[] signal, int[] index);
+    }
+
+    /** Return a LaneVectors, or null if it was not compiled, the module
+     *  it needs is absent, or its vectors hold only one lane.  It is
+     *  loaded by name so that I compile and run without it. */
+    private static Gathers gathers() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector")
+            .isEmpty()) {
+            return null;
+        }
+        try {
+            Gathers result = (Gathers) Class.forName("enigma.LaneVectors")
+                .getDeclaredConstructor().newInstance();
+            return result.width() > 1 ? result : null;
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            return null;
+        }
+    }
+
+    /** The vector gathers used, or null if there are none. */
+    private static final Gathers GATHERS = gathers();
+    /** True iff vector gathers are available. */
+    static final boolean VECTORS = GATHERS != null;
+
+    /** Number of lanes. */
+    private final int _lanes;
+    /** Size of the alphabet. */
+    private final int _size;
+    /** Number of rotor slots, including the reflector. */
+    private final int _numRotors;
+    /** Number of pawls. */
+    private final int _pawls;
+    /** Names of the rotors in each slot. */
+    private final String[] _names;
+    /** Wiring and inverse wiring of the rotor in each slot at setting 0. */
+    private final int[][] _forward, _inverse;
+    /** Forward and backward tables of the rotor in each slot at every
+     *  setting, as for Rotor.shiftedForward, or null if the alphabet is
+     *  too large for them. */
+    private final int[][] _shiftedForward, _shiftedBackward;
+    /** Number of leftmost slots whose combined conversion is kept for
+     *  each lane in _inner, or 0, chosen as for MachineCore. */
+    private final int _split;
+    /** The combined conversion by slots 0 .. _split - 1 of lane L, at
+     *  L * _size. */
+    private final int[] _inner;
+    /** True for lanes whose entries in _inner are up to date. */
+    private final boolean[] _innerValid;
+    /** Notch positions of the rotor in each slot, as bit sets. */
+    private final long[][] _notchMasks;
+    /** True for slots whose rotors have ratchets. */
+    private final boolean[] _rotates;
+    /** Setting of the rotor in each slot, by lane. */
+    private final int[][] _positions;
+    /** Setting less ring setting, modulo the alphabet size, of the rotor
+     *  in each slot, by lane. */
+    private final int[][] _offsets;
+    /** Whether the rotor in each slot is about to step, by lane. */
+    private final boolean[][] _stepping;
+    /** Plugboard of each lane: the image of C under lane L's plugboard
+     *  is at C * _lanes + L. */
+    private final int[] _plugboards;
+    /** The signal in each lane during a conversion. */
+    private final int[] _signal;
+    /** True iff I convert by vector gathers. */
+    private final boolean _vector;
+    /** Scratch table indices, by lane, for the vector gathers. */
+    private final int[] _index;
+    /** Start of each lane's entries in _inner, by lane, for the vector
+     *  gathers. */
+    private final int[] _innerBases;
+}
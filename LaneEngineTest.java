@@ -0,0 +1,160 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the LaneEngine class.
+ *  @author annetta
+ */
+public class LaneEngineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    private static final String[][] SETTINGS = {
+        { "AXLE", "AAAA", "(YF) (ZH)" },
+        { "AUIQ", "AAAA", "" },
+        { "BVJP", "CDEF", "(AB) (CD) (EF)" },
+        { "ZZZZ", "ZBZB", "(QW)" },
+        { "AVJQ", "AAAB", "(TZ) (RX)" },
+    };
+
+    private static Machine machine(String[] setting) {
+        Machine mach = fiveSlotNavalMachine();
+        mach.insertRotors(FIVE_SLOT_ORDER);
+        mach.setRotors(setting[0]);
+        mach.setRotorRing(setting[1]);
+        mach.setPlugboard(new Permutation(setting[2], UPPER));
+        return mach;
+    }
+
+    @Test
+    public void checkMatchesMachines() {
+        int lanes = SETTINGS.length;
+        LaneEngine engine = new LaneEngine(machine(SETTINGS[0]), lanes);
+        assertEquals(lanes, engine.lanes());
+        for (int lane = 1; lane < lanes; lane += 1) {
+            engine.setLane(lane, machine(SETTINGS[lane]).snapshot());
+        }
+        int len = 2000;
+        int[] text = new int[len];
+        for (int i = 0; i < len; i += 1) {
+            text[i] = (i * 7 + i / 26) % 26;
+        }
+        int[] out = new int[len * lanes];
+        engine.convert(text, 0, len, out);
+        for (int lane = 0; lane < lanes; lane += 1) {
+            Machine mach = machine(SETTINGS[lane]);
+            for (int i = 0; i < len; i += 1) {
+                assertEquals(mach.convert(text[i]), out[i * lanes + lane]);
+            }
+            for (int k = 1; k < 5; k += 1) {
+                assertEquals(mach.setting(k),
+                             engine.position(lane, k));
+            }
+        }
+    }
+
+    /** Assert that LANES lanes of MODEL's rotors, at random settings
+     *  chosen by RAND, convert a random text of LEN characters by vector
+     *  gathers (where they are available) exactly as by plain loops and
+     *  as separate Machines. */
+    private static void checkVectorMatchesLoops(Machine model, int lanes,
+                                                int len, Random rand) {
+        int size = model.alphabet().size();
+        int[] settings = new int[model.numRotors()];
+        int[] rings = new int[model.numRotors()];
+        Machine[] machines = new Machine[lanes];
+        LaneEngine loops = new LaneEngine(model, lanes, false);
+        LaneEngine vectors = new LaneEngine(model, lanes, true);
+        assertFalse(loops.vector());
+        assertEquals(LaneEngine.VECTORS, vectors.vector());
+        for (int lane = 0; lane < lanes; lane += 1) {
+            machines[lane] = new Machine(model);
+            for (int k = 1; k < settings.length; k += 1) {
+                settings[k] = rand.nextInt(size);
+                rings[k] = rand.nextInt(size);
+            }
+            machines[lane].setRotors(settings, rings);
+            loops.setLane(lane, machines[lane].snapshot());
+            vectors.setLane(lane, machines[lane].snapshot());
+        }
+        int[] text = new int[len];
+        for (int i = 0; i < len; i += 1) {
+            text[i] = rand.nextInt(size);
+        }
+        int[] loopsOut = new int[len * lanes];
+        int[] vectorsOut = new int[len * lanes];
+        loops.convert(text, 0, len, loopsOut);
+        vectors.convert(text, 0, len, vectorsOut);
+        assertArrayEquals(loopsOut, vectorsOut);
+        for (int lane = 0; lane < lanes; lane += 1) {
+            for (int i = 0; i < len; i += 1) {
+                assertEquals(machines[lane].convert(text[i]),
+                             vectorsOut[i * lanes + lane]);
+            }
+        }
+    }
+
+    @Test
+    public void checkVectorMatchesLoops() {
+        Machine model = machine(SETTINGS[2]);
+        checkVectorMatchesLoops(model, 37, 1000, new Random(37));
+    }
+
+    /** Return a permutation of ALPHA made of the cycles of length CYCLE
+     *  of the characters in the order given by RAND. */
+    private static Permutation randomPermutation(Alphabet alpha, int cycle,
+                                                 Random rand) {
+        ArrayList<Integer> order = new ArrayList<>();
+        for (int c = 0; c < alpha.size(); c += 1) {
+            order.add(c);
+        }
+        Collections.shuffle(order, rand);
+        int[] forward = new int[alpha.size()];
+        for (int i = 0; i < order.size(); i += 1) {
+            int next = i % cycle == cycle - 1 ? i - cycle + 1 : i + 1;
+            forward[order.get(i)] = order.get(next);
+        }
+        return new Permutation(forward, alpha);
+    }
+
+    @Test
+    public void checkVectorMatchesLoopsOnWideAlphabet() {
+        StringBuilder chars = new StringBuilder();
+        for (int c = 0; c < Rotor.MAX_SHIFTED_SIZE + 44; c += 1) {
+            chars.append((char) (0x100 + c));
+        }
+        Alphabet wide = new Alphabet(chars.toString());
+        Random rand = new Random(300);
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R", randomPermutation(wide, 2, rand)));
+        rotors.add(new MovingRotor("X", randomPermutation(wide, 300, rand),
+                                   "\u0100"));
+        rotors.add(new MovingRotor("Y", randomPermutation(wide, 5, rand),
+                                   "\u0101\u0102"));
+        Machine model = new Machine(wide, 3, 2, rotors);
+        model.insertRotors(new String[] { "R", "X", "Y" });
+        checkVectorMatchesLoops(model, 19, 800, rand);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkDifferentRotors() {
+        LaneEngine engine = new LaneEngine(machine(SETTINGS[0]), 2);
+        Machine other = fiveSlotNavalMachine();
+        other.insertRotors(new String[] { "B", "Beta", "I", "IV", "III" });
+        other.setRotors("AAAA");
+        engine.setLane(1, other.snapshot());
+    }
+}
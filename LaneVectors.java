@@ -0,0 +1,71 @@
+package enigma;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** The table lookups of a LaneEngine done as vector gathers, using the
+ *  incubating module jdk.incubator.vector.  This class is compiled only
+ *  by 'make vector', and LaneEngine loads it by name only when that
+ *  module is present, falling back to its own loops otherwise.
+ *  @author annetta
+ */
+final class LaneVectors implements LaneEngine.Gathers {
+
+    /** Vector gathers for LaneEngine, which creates me by reflection. */
+    LaneVectors() {
+    }
+
+    /** The vector shape used. */
+    private static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public int width() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public int shifted(int[] table, int n, int[] offsets, int[] signal,
+                       int[] index) {
+        int bound = SPECIES.loopBound(signal.length);
+        for (int lane = 0; lane < bound; lane += SPECIES.length()) {
+            IntVector.fromArray(SPECIES, offsets, lane).mul(n)
+                .add(IntVector.fromArray(SPECIES, signal, lane))
+                .intoArray(index, lane);
+            IntVector.fromArray(SPECIES, table, 0, index, lane)
+                .intoArray(signal, lane);
+        }
+        return bound;
+    }
+
+    @Override
+    public int offset(int[] table, int n, int[] offsets, int[] signal,
+                      int[] index) {
+        int bound = SPECIES.loopBound(signal.length);
+        for (int lane = 0; lane < bound; lane += SPECIES.length()) {
+            IntVector off = IntVector.fromArray(SPECIES, offsets, lane);
+            IntVector c = IntVector.fromArray(SPECIES, signal, lane).add(off);
+            VectorMask<Integer> over = c.compare(VectorOperators.GE, n);
+            c.lanewise(VectorOperators.SUB, n, over).intoArray(index, lane);
+            c = IntVector.fromArray(SPECIES, table, 0, index, lane).sub(off);
+            VectorMask<Integer> under = c.compare(VectorOperators.LT, 0);
+            c.lanewise(VectorOperators.ADD, n, under).intoArray(signal, lane);
+        }
+        return bound;
+    }
+
+    @Override
+    public int based(int[] table, int[] bases, int[] signal, int[] index) {
+        int bound = SPECIES.loopBound(signal.length);
+        for (int lane = 0; lane < bound; lane += SPECIES.length()) {
+            IntVector.fromArray(SPECIES, bases, lane)
+                .add(IntVector.fromArray(SPECIES, signal, lane))
+                .intoArray(index, lane);
+            IntVector.fromArray(SPECIES, table, 0, index, lane)
+                .intoArray(signal, lane);
+        }
+        return bound;
+    }
+}
@@ -3,7 +3,9 @@ package enigma;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Objects;
+
+import static enigma.EnigmaException.*;
 
 /** Class that represents a complete enigma machine.
  *  @author annetta
@@ -12,22 +14,83 @@ class Machine {
 
     /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
      *  and 0 <= PAWLS < NUMROTORS pawls.  ALLROTORS contains all the
-     *  available rotors. */
+     *  available rotors, which the machine copies rather than modifies. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
+        this(alpha, numRotors, pawls, new RotorCatalog(allRotors));
+    }
+
+    /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
+     *  and 0 <= PAWLS < NUMROTORS pawls, whose available rotors are copies
+     *  of those in CATALOG. */
+    Machine(Alphabet alpha, int numRotors, int pawls, RotorCatalog catalog) {
         _alphabet = alpha;
         _numRotors = numRotors;
         _pawls = pawls;
+        _catalog = catalog;
         _allRotors = new HashMap<String, Rotor>();
-        for (Rotor r : allRotors) {
-            _allRotors.put(r.name(), r);
-        }
         _plugboard = new Permutation("", _alphabet);
     }
 
-    /** Return all the of rotors I have. */
-    HashMap<String, Rotor> getAllR() {
-        return _allRotors;
+    /** A new machine with the same alphabet, rotors, rotor settings and
+     *  plugboard as MACH, whose settings change independently of MACH's.
+     *  The machine has its own copies of MACH's rotors and plugboard. */
+    Machine(Machine mach) {
+        _alphabet = mach._alphabet;
+        _numRotors = mach._numRotors;
+        _pawls = mach._pawls;
+        _catalog = mach._catalog;
+        _allRotors = new HashMap<String, Rotor>();
+        for (Rotor r : mach._allRotors.values()) {
+            _allRotors.put(r.name(), r.copy());
+        }
+        _plugboard = new Permutation(mach._plugboard);
+        _tableBudget = mach._tableBudget;
+        _periodTableLimit = mach._periodTableLimit;
+        _plugboardSnapshot = mach._plugboardSnapshot;
+        _rotorNames = mach._rotorNames;
+        if (mach._myRotors != null) {
+            _myRotors = new ArrayList<Rotor>();
+            for (Rotor r : mach._myRotors) {
+                _myRotors.add(_allRotors.get(r.name()));
+            }
+            _positions = mach.positions().clone();
+            _rings = mach._rings.clone();
+            _notchMasks = mach._notchMasks;
+            _notches = mach._notches;
+            _notchCounts = mach._notchCounts;
+            _rotates = mach._rotates;
+            _stepping = new boolean[_numRotors];
+            _periodTable = mach._periodTable;
+            _periodTableRejected = mach._periodTableRejected;
+            _state = mach._state;
+            _start = mach._start == null ? null : mach._start.clone();
+        }
+    }
+
+    /** Return the catalog from which my rotors were copied. */
+    RotorCatalog catalog() {
+        return _catalog;
+    }
+
+    /** Return true iff I have a rotor named NAME. */
+    boolean hasRotor(String name) {
+        return _catalog.contains(name);
+    }
+
+    /** Return my rotor named NAME, or null if there is none.  My copy of
+     *  a catalog rotor is made the first time it is needed. */
+    Rotor rotor(String name) {
+        Rotor r = _allRotors.get(name);
+        if (r == null) {
+            Rotor model = _catalog.get(name);
+            if (model == null) {
+                return null;
+            }
+            r = model.copy();
+            _allRotors.put(name, r);
+        }
+        return r;
     }
 
     /** Return the number of rotor slots I have. */
@@ -42,11 +105,55 @@ class Machine {
 
     /** Return Rotor #K, where Rotor #0 is the reflector, and Rotor
      *  #(numRotors()-1) is the fast Rotor.  Modifying this Rotor has
-     *  undefined results. */
+     *  undefined results.  The rotor's own setting is not kept up to
+     *  date as I convert; use setting(K) for that. */
     Rotor getRotor(int k) {
         return _myRotors.get(k);
     }
 
+    /** Return the current setting of the rotor in slot K. */
+    int setting(int k) {
+        return positions()[k];
+    }
+
+    /** Bring the settings of the rotors in my slots up to date with my
+     *  slot settings. */
+    private void syncRotors() {
+        int[] positions = positions();
+        for (int k = 0; k < _myRotors.size(); k += 1) {
+            Rotor r = _myRotors.get(k);
+            if (r.rotates()) {
+                r.set(positions[k]);
+            }
+        }
+    }
+
+    /** Return the number of bytes of shifted rotor tables that my
+     *  compiled core may use.  Cores that would need more convert with
+     *  arithmetic. */
+    long tableBudget() {
+        return _tableBudget;
+    }
+
+    /** Set tableBudget() to BYTES. */
+    void setTableBudget(long bytes) {
+        _tableBudget = bytes;
+        _core = null;
+    }
+
+    /** Return the largest number of bytes I may spend on a period table,
+     *  or 0 if period tables are disabled. */
+    long periodTableLimit() {
+        return _periodTableLimit;
+    }
+
+    /** Set periodTableLimit() to BYTES. */
+    void setPeriodTableLimit(long bytes) {
+        _periodTableLimit = bytes;
+        dropPeriodTable();
+    }
+
+    /** Return my alphabet. */
     Alphabet alphabet() {
         return _alphabet;
     }
@@ -55,10 +162,14 @@ class Machine {
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
+        if (_myRotors != null) {
+            syncRotors();
+            dropPeriodTable();
+        }
         _myRotors = new ArrayList<Rotor>();
         for (String rotor : rotors) {
-            if (_allRotors.get(rotor) != null) {
-                _myRotors.add(_allRotors.get(rotor));
+            if (rotor(rotor) != null) {
+                _myRotors.add(rotor(rotor));
             }
         }
         for (int i = 0; i < _myRotors.size(); i++) {
@@ -78,25 +189,54 @@ class Machine {
                 }
             }
         }
+        int n = _myRotors.size();
+        _rotorNames = new String[n];
+        _positions = new int[n];
+        _rings = new int[n];
+        _notchMasks = new long[n][];
+        _notches = new int[n][];
+        _notchCounts = new int[n][];
+        _rotates = new boolean[n];
+        _stepping = new boolean[n];
+        for (int i = 0; i < n; i += 1) {
+            Rotor r = _myRotors.get(i);
+            _rotorNames[i] = r.name();
+            _positions[i] = r.permutation().wrap(r.setting());
+            _rings[i] = r.permutation().wrap(r.ring());
+            _notchMasks[i] = r.notchMask();
+            countNotches(i);
+            _rotates[i] = r.rotates();
+        }
+        _start = _positions.clone();
+        _core = null;
     }
 
     /** Set my rotors according to SETTING, which must be a string of
      *  numRotors()-1 characters in my alphabet. The first letter refers
      *  to the leftmost rotor setting (not counting the reflector).  */
     void setRotors(String setting) {
-        if (setting.length() != _numRotors - 1) {
+        int[] posns = setting.codePoints().toArray();
+        if (posns.length != _numRotors - 1) {
             throw new EnigmaException("wrong setting LENGTH");
         }
-        int i = 0;
-        while (i < _numRotors) {
-            if (i >= 1) {
-                if (!_alphabet.contains(setting.charAt(i - 1))) {
-                    throw new EnigmaException("wrong setting value");
-                }
-                char set = setting.charAt(i - 1);
-                _myRotors.get(i).set(set);
+        for (int i = 1; i < _numRotors; i += 1) {
+            if (!_alphabet.contains(posns[i - 1])) {
+                throw new EnigmaException("wrong setting value");
+            }
+            _positions[i] = _alphabet.toInt(posns[i - 1]);
+            _myRotors.get(i).set(_positions[i]);
+        }
+        _positionsStale = false;
+        _start = _positions.clone();
+        if (_core != null) {
+            _core.invalidate();
+        }
+        if (_periodTable != null) {
+            if (_periodTable.fits(_positions)) {
+                _state = _periodTable.stateOf(_positions);
+            } else {
+                dropPeriodTable();
             }
-            i += 1;
         }
     }
 
@@ -104,19 +244,157 @@ class Machine {
      *  numRotors()-1 characters in my alphabet. The first letter refers
      *  to the leftmost rotor setting (not counting the reflector).  */
     void setRotorRing(String setting) {
-        if (setting.length() != _numRotors - 1) {
+        int[] posns = setting.codePoints().toArray();
+        if (posns.length != _numRotors - 1) {
             throw new EnigmaException("wrong ring setting LENGTH");
         }
-        int i = 0;
-        while (i < _numRotors) {
-            if (i >= 1) {
-                if (!_alphabet.contains(setting.charAt(i - 1))) {
-                    throw new EnigmaException("wrong setting value");
-                }
-                char set = setting.charAt(i - 1);
-                _myRotors.get(i).setRing(set);
+        for (int i = 1; i < _numRotors; i += 1) {
+            if (!_alphabet.contains(posns[i - 1])) {
+                throw new EnigmaException("wrong setting value");
             }
-            i += 1;
+            _rings[i] = _alphabet.toInt(posns[i - 1]);
+            _myRotors.get(i).setRing(_rings[i]);
+        }
+        if (_core != null) {
+            _core.invalidate();
+        }
+        dropPeriodTable();
+    }
+
+    /** Return my current state: the rotors in my slots, their settings and
+     *  ring settings, and my plugboard.  The state is unaffected by later
+     *  changes to me, and may be given to restore. */
+    MachineState snapshot() {
+        if (_myRotors == null) {
+            throw error("rotors have not been set");
+        }
+        if (_plugboardSnapshot == null
+            || !_plugboardSnapshot.sameAs(_plugboard)) {
+            _plugboardSnapshot = new Permutation(_plugboard);
+        }
+        return new MachineState(_rotorNames, positions(), _rings,
+                                _plugboardSnapshot);
+    }
+
+    /** Return me to STATE, a result of snapshot() on me or on a machine
+     *  with the same configuration, as if by insertRotors, setRotors,
+     *  setRotorRing and adding STATE's plugboard cycles to an empty
+     *  plugboard.  My plugboard is modified in place.  Unless the rotors
+     *  in my slots change, takes time proportional to the number of
+     *  slots and alphabet size and allocates nothing. */
+    void restore(MachineState state) {
+        if (state.numRotors() != _numRotors) {
+            throw error("state is for a different machine");
+        }
+        if (_myRotors == null || !state.hasRotors(_rotorNames)) {
+            String[] names = new String[_numRotors];
+            for (int k = 0; k < _numRotors; k += 1) {
+                names[k] = state.rotor(k);
+            }
+            insertRotors(names);
+        }
+        boolean ringsChanged = false;
+        for (int k = 0; k < _numRotors; k += 1) {
+            Rotor r = _myRotors.get(k);
+            int ring = state.ring(k);
+            if (ring != _rings[k]) {
+                ringsChanged = true;
+                _rings[k] = ring;
+            }
+            r.setRing(ring);
+            _positions[k] = state.position(k);
+            if (k > 0) {
+                r.set(_positions[k]);
+            }
+        }
+        if (state.plugboard() != _plugboard) {
+            _plugboard.copyFrom(state.plugboard());
+        }
+        settingsChanged(ringsChanged);
+    }
+
+    /** Set the settings and ring settings of my rotors to SETTINGS and
+     *  RINGS, which are indexed by slot (slot 0 is ignored), as if by
+     *  setRotors and setRotorRing.  Allocates nothing once my rotors'
+     *  settings have been set before. */
+    void setRotors(int[] settings, int[] rings) {
+        if (_myRotors == null) {
+            throw error("rotors have not been set");
+        }
+        if (settings.length != _numRotors || rings.length != _numRotors) {
+            throw new EnigmaException("wrong setting LENGTH");
+        }
+        int size = _alphabet.size();
+        for (int k = 1; k < _numRotors; k += 1) {
+            if (settings[k] < 0 || settings[k] >= size
+                || rings[k] < 0 || rings[k] >= size) {
+                throw new EnigmaException("wrong setting value");
+            }
+        }
+        boolean ringsChanged = false;
+        for (int k = 1; k < _numRotors; k += 1) {
+            Rotor r = _myRotors.get(k);
+            if (rings[k] != _rings[k]) {
+                ringsChanged = true;
+                _rings[k] = rings[k];
+            }
+            r.setRing(rings[k]);
+            _positions[k] = settings[k];
+            r.set(settings[k]);
+        }
+        settingsChanged(ringsChanged);
+    }
+
+    /** Bring the rest of my state up to date after _positions (and
+     *  _rings, if RINGSCHANGED) have been set directly. */
+    private void settingsChanged(boolean ringsChanged) {
+        _positionsStale = false;
+        if (_start == null) {
+            _start = _positions.clone();
+        } else {
+            System.arraycopy(_positions, 0, _start, 0, _numRotors);
+        }
+        if (_core != null) {
+            _core.invalidate();
+        }
+        if (ringsChanged) {
+            dropPeriodTable();
+        } else if (_periodTable != null) {
+            if (_periodTable.fits(_positions)) {
+                _state = _periodTable.stateOf(_positions);
+            } else {
+                dropPeriodTable();
+            }
+        }
+    }
+
+    /** Return my rotors to the settings last given to setRotors (or
+     *  that they had when inserted, if none has been given since), and
+     *  then advance them as if N characters had been converted. */
+    void seek(long n) {
+        if (_start == null) {
+            throw error("rotors have not been set");
+        }
+        System.arraycopy(_start, 0, positions(), 0, _numRotors);
+        skip(n);
+    }
+
+    /** Advance my rotors as if N characters had been converted, without
+     *  converting them.  The fast and next rotors are advanced
+     *  arithmetically, and each slower rotor one step at a time, so that
+     *  the time taken is independent of N once the settings of the
+     *  rotors below the slowest repeat (see jump). */
+    void skip(long n) {
+        if (n < 0) {
+            throw error("cannot skip backwards");
+        }
+        int[] positions = positions();
+        jump(positions, n);
+        if (_core != null) {
+            _core.invalidate();
+        }
+        if (_periodTable != null) {
+            _state = _periodTable.stateOf(positions);
         }
     }
 
@@ -128,60 +406,357 @@ class Machine {
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
         _plugboard = plugboard;
+        _core = null;
     }
 
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
-     *  the machine. */
+     *  the machine.  Unless tracing is on, the conversion is done by a
+     *  period table or the compiled core rather than rotor by rotor. */
     int convert(int c) {
-        advanceRotors();
-        if (Main.verbose()) {
-            System.err.printf("[");
-            for (int r = 1; r < numRotors(); r += 1) {
-                System.err.printf("%c",
-                        alphabet().toChar(getRotor(r).setting()));
+        if (!Main.verbose()) {
+            PeriodTable table = periodTable();
+            if (table != null) {
+                _state = table.next(_state);
+                _positionsStale = true;
+                c = table.convert(_state, _plugboard.permute(c));
+                return _plugboard.permute(c);
             }
-            System.err.printf("] %c -> ", alphabet().toChar(c));
+            advanceRotors();
+            return core().convert(_plugboard.wrap(c));
         }
-        c = plugboard().permute(c);
-        if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(c));
+        advanceRotors();
+        syncRotors();
+        System.err.printf("[");
+        for (int r = 1; r < numRotors(); r += 1) {
+            System.err.printf("%c",
+                    alphabet().toCodePoint(getRotor(r).setting()));
         }
+        System.err.printf("] %c -> ", alphabet().toCodePoint(c));
+        c = plugboard().permute(c);
+        System.err.printf("%c -> ", alphabet().toCodePoint(c));
         c = applyRotors(c);
         c = plugboard().permute(c);
-        if (Main.verbose()) {
-            System.err.printf("%c%n", alphabet().toChar(c));
-        }
+        System.err.printf("%c%n", alphabet().toCodePoint(c));
         return c;
     }
 
+    /** Build my period table now, if period tables are enabled and mine
+     *  would fit and is not yet built, so that the copies of me made
+     *  with Machine(Machine) share it rather than each building its
+     *  own. */
+    void buildPeriodTable() {
+        if (_myRotors != null && !Main.verbose()) {
+            periodTable();
+        }
+    }
+
+    /** Return the compiled signal path for my current rotors, building
+     *  it if needed. */
+    private MachineCore core() {
+        if (_core == null) {
+            _core = new MachineCore(this, _positions, _rings);
+        }
+        return _core;
+    }
+
+    /** Return my period table, building it if there is none, period
+     *  tables are enabled, and it would fit within periodTableLimit().
+     *  Returns null if there is no usable table. */
+    private PeriodTable periodTable() {
+        if (_periodTable == null && !_periodTableRejected) {
+            long limit = _periodTableLimit;
+            if (limit > 0 && PeriodTable.estimate(this) <= limit) {
+                _periodTable = new PeriodTable(this, positions(), _rings);
+                _state = _periodTable.stateOf(_positions);
+            } else {
+                _periodTableRejected = true;
+            }
+        }
+        return _periodTable;
+    }
+
+    /** Discard my period table, if any, after bringing my slot settings
+     *  up to date. */
+    private void dropPeriodTable() {
+        positions();
+        _periodTable = null;
+        _periodTableRejected = false;
+    }
+
+    /** Return the setting of the rotor in each slot, first recovering it
+     *  from the period table state if conversions have been done through
+     *  the table. */
+    private int[] positions() {
+        if (_positionsStale) {
+            _periodTable.decode(_state, _positions);
+            _positionsStale = false;
+            if (_core != null) {
+                _core.invalidate();
+            }
+        }
+        return _positions;
+    }
+
     /** Advance all rotors to their next position. */
     private void advanceRotors() {
-        if (_numRotors - 1 < 0) {
-            throw new EnigmaException("wrong rotor length");
+        int moved = step(positions());
+        if (_core != null) {
+            _core.stepped(moved);
         }
-        LinkedHashMap<String, Rotor> doubSR = new LinkedHashMap<>();
-        Rotor right = getRotor(numRotors() - 1);
-        doubSR.put(right.name(), right);
-        for (int i = _numRotors - _pawls; i < numRotors() - 1; i++) {
-            if (getRotor(i + 1).atNotch()) {
-                Rotor r = getRotor(i);
-                doubSR.put(r.name(), r);
+    }
+
+    /** Advance the slot settings POSITIONS of my rotors to their next
+     *  position, returning the leftmost slot that moved.  A rotor steps if
+     *  it is the fast rotor, if the rotor to its right is at a notch, or
+     *  if the rotor to its left steps because it is itself at a notch
+     *  (double stepping). */
+    int step(int[] positions) {
+        boolean[] stepping = _stepping;
+        int last = _numRotors - 1;
+        stepping[last] = true;
+        for (int i = _numRotors - _pawls; i < last; i += 1) {
+            if (atNotch(positions, i + 1)) {
+                stepping[i] = true;
+            }
+            if (atNotch(positions, i) && _rotates[i - 1]) {
+                stepping[i - 1] = true;
             }
-            if (getRotor(i).atNotch()
-                    && getRotor(i - 1).rotates()) {
-                Rotor r = getRotor(i - 1);
-                doubSR.put(r.name(), r);
+            if (stepping[i - 1]) {
+                stepping[i] = true;
             }
-            if (doubSR.containsValue(getRotor(i - 1))) {
-                doubSR.put(getRotor(i).name(), getRotor(i));
+        }
+        int size = _alphabet.size();
+        int moved = last;
+        for (int i = last; i >= 0; i -= 1) {
+            if (stepping[i]) {
+                stepping[i] = false;
+                if (_rotates[i]) {
+                    int p = positions[i] + 1;
+                    positions[i] = p == size ? 0 : p;
+                    moved = i;
+                }
+            }
+        }
+        return moved;
+    }
+
+    /** Fill _notches[K] and _notchCounts[K] from _notchMasks[K]. */
+    private void countNotches(int k) {
+        int size = _alphabet.size();
+        int[] counts = new int[size + 1];
+        for (int p = 0; p < size; p += 1) {
+            boolean notch = (_notchMasks[k][p >>> 6] & (1L << p)) != 0;
+            counts[p + 1] = counts[p] + (notch ? 1 : 0);
+        }
+        int[] notches = new int[counts[size]];
+        for (int p = 0; p < size; p += 1) {
+            if (counts[p + 1] > counts[p]) {
+                notches[counts[p]] = p;
             }
         }
-        for (Rotor rotor: doubSR.values()) {
-            rotor.advance();
+        _notches[k] = notches;
+        _notchCounts[k] = counts;
+    }
+
+    /** Advance the slot settings POSITIONS by N keypresses.  With the
+     *  moving rotors in slots TOP .. LAST, each keypress steps the rotors
+     *  from one left of the leftmost rotor in TOP+1 .. LAST that is at a
+     *  notch through LAST, or only LAST if none is; see step.  So the
+     *  rotors from any slot J rightwards run on their own until the rotor
+     *  in J reaches a notch, which run exploits level by level.  Machines
+     *  with rotors that do not fit this pattern are stepped one keypress
+     *  at a time, with cycle detection. */
+    private void jump(int[] positions, long n) {
+        int last = _numRotors - 1, top = _numRotors - _pawls;
+        boolean regular = top >= 1 && !_rotates[top - 1];
+        for (int k = top; k <= last; k += 1) {
+            regular &= _rotates[k];
+        }
+        if (top > last || n == 0) {
+            return;
+        } else if (regular) {
+            run(positions, top, top, n);
+            return;
+        }
+        Cycle cycle = new Cycle(n);
+        while (n > 0) {
+            step(positions);
+            n -= 1;
+            n = cycle.reduce(encode(positions, 0), n, positions, -1);
         }
     }
 
+    /** Make up to N keypresses from the slot settings POSITIONS, whose
+     *  moving rotors are in slots TOP .. numRotors()-1, and return the
+     *  number made.  Only the rotors in slots J and up move, and the
+     *  keypresses stop short of any at which the rotor in J is at a
+     *  notch, unless J is TOP (whose notches move nothing).  None of the
+     *  rotors in slots TOP+1 .. J-1 may be at a notch. */
+    private long run(int[] positions, int top, int j, long n) {
+        int last = _numRotors - 1, size = _alphabet.size();
+        int untilNotch = j > top ? toNotch(j, positions[j]) : -1;
+        if (untilNotch == 0) {
+            return 0;
+        } else if (j == last) {
+            long moves = untilNotch < 0 ? n : Math.min(n, untilNotch);
+            positions[j] = (int) ((positions[j] + moves % size) % size);
+            return moves;
+        } else if (j == last - 1) {
+            int fast = positions[last];
+            long moves = untilNotch > 0 && _notches[last].length > 0
+                ? notchTime(last, fast, untilNotch) : Long.MAX_VALUE;
+            long steps = untilNotch;
+            if (moves > n) {
+                moves = n;
+                steps = notchesPassed(last, fast, n);
+            }
+            positions[j] = (int) ((positions[j] + steps % size) % size);
+            positions[last] = (int) ((fast + moves % size) % size);
+            return moves;
+        }
+        Cycle cycle = untilNotch < 0 ? new Cycle(n) : null;
+        long done = 0;
+        while (true) {
+            if (untilNotch > 0 && atNotch(positions, j)) {
+                return done;
+            }
+            done += run(positions, top, j + 1, n - done);
+            if (done == n) {
+                return done;
+            }
+            for (int k = j; k <= last; k += 1) {
+                int p = positions[k] + 1;
+                positions[k] = p == size ? 0 : p;
+            }
+            done += 1;
+            if (cycle != null) {
+                done = n - cycle.reduce(encode(positions, j + 1), n - done,
+                                        positions, j);
+            }
+        }
+    }
+
+    /** Return the number of steps from position P of the rotor in slot K
+     *  to one of its notches (0 if P is one), or -1 if it has none. */
+    private int toNotch(int k, int p) {
+        int[] notches = _notches[k];
+        if (notches.length == 0) {
+            return -1;
+        }
+        int i = _notchCounts[k][p];
+        return i < notches.length ? notches[i] - p
+            : notches[0] + _alphabet.size() - p;
+    }
+
+    /** Return how many of the T positions starting at P of the rotor in
+     *  slot K, as it turns, are notches. */
+    private long notchesPassed(int k, int p, long t) {
+        int size = _alphabet.size();
+        int[] counts = _notchCounts[k];
+        int r = (int) (t % size);
+        long result = t / size * counts[size];
+        if (p + r <= size) {
+            return result + counts[p + r] - counts[p];
+        }
+        return result + counts[size] - counts[p] + counts[p + r - size];
+    }
+
+    /** Return the number of positions, starting at P, that the rotor in
+     *  slot K, which must have notches, turns through up to and
+     *  including the Dth (D > 0) notch it passes. */
+    private long notchTime(int k, int p, long d) {
+        int size = _alphabet.size();
+        int[] notches = _notches[k];
+        long turns = (d - 1) / notches.length;
+        int rest = (int) (d - turns * notches.length);
+        int ahead = notches.length - _notchCounts[k][p];
+        int notch = rest <= ahead
+            ? notches[_notchCounts[k][p] + rest - 1] - p
+            : notches[rest - ahead - 1] + size - p;
+        return turns * size + notch + 1;
+    }
+
+    /** Return the slot settings POSITIONS of slots FROM and up as a
+     *  single number, or -1 if they do not fit in a long. */
+    private long encode(int[] positions, int from) {
+        int size = _alphabet.size();
+        long key = 0;
+        for (int k = from; k < _numRotors; k += 1) {
+            if (key > (Long.MAX_VALUE - positions[k]) / size) {
+                return -1;
+            }
+            key = key * size + positions[k];
+        }
+        return key;
+    }
+
+    /** Brent's cycle detection over the states of a deterministic series
+     *  of moves, each a whole number of keypresses, in constant space.
+     *  Once the state repeats, the keypresses left are reduced modulo
+     *  the keypresses in a cycle. */
+    private final class Cycle {
+
+        /** Detection for a series of moves starting with N keypresses
+         *  left. */
+        Cycle(long n) {
+            _savedLeft = n;
+        }
+
+        /** Note that after another move the state is KEY (or -1 if it has
+         *  no key), with N keypresses left.  Return the keypresses left
+         *  after skipping whole cycles, advancing the rotor in slot
+         *  COUNTED of POSITIONS (if COUNTED >= 0), which steps once per
+         *  move but does not affect the state, as for the cycles
+         *  skipped. */
+        long reduce(long key, long n, int[] positions, int counted) {
+            if (_done || key < 0) {
+                return n;
+            }
+            _length += 1;
+            if (key == _saved) {
+                _done = true;
+                long period = _savedLeft - n, cycles = n / period;
+                if (counted >= 0) {
+                    int size = _alphabet.size();
+                    long steps = (cycles % size) * (_length % size) % size;
+                    positions[counted] =
+                        (int) ((positions[counted] + steps) % size);
+                }
+                return n - cycles * period;
+            }
+            if (_length == _power) {
+                _saved = key;
+                _savedLeft = n;
+                _power *= 2;
+                _length = 0;
+            }
+            return n;
+        }
+
+        /** The state saved for comparison, or -1 if none yet. */
+        private long _saved = -1;
+        /** Keypresses left when _saved was saved. */
+        private long _savedLeft;
+        /** Moves since _saved was saved, and the number after which a new
+         *  one is saved. */
+        private long _length, _power = 1;
+        /** True once a cycle has been skipped. */
+        private boolean _done;
+    }
+
+    /** Return true iff the rotor in slot K is at one of its notches when
+     *  the slot settings are POSITIONS. */
+    private boolean atNotch(int[] positions, int k) {
+        int p = positions[k];
+        return (_notchMasks[k][p >>> 6] & (1L << p)) != 0;
+    }
+
+    /** Return true iff the rotor in slot K has a ratchet. */
+    boolean rotates(int k) {
+        return _rotates[k];
+    }
+
     /** Return the result of applying the rotors to the character C (as an
      *  index in the range 0..alphabet size - 1). */
     private int applyRotors(int c) {
@@ -201,20 +776,88 @@ class Machine {
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        StringBuilder result = new StringBuilder();
-        char[] ch = msg.toCharArray();
-        for (char c : ch) {
+        int max = _alphabet.maxCodePoint();
+        if (max < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            char[] buf = msg.toCharArray();
+            convert(buf, buf, 0, buf.length);
+            return new String(buf);
+        }
+        StringBuilder result = new StringBuilder(msg.length());
+        int k = 0;
+        while (k < msg.length()) {
+            int c = msg.codePointAt(k);
+            k += Character.charCount(c);
             if (!_alphabet.contains(c)) {
                 throw new EnigmaException("MSG NOT IN ALPHABETE");
             }
-            int m = _alphabet.toInt(c);
-            int i = convert(_plugboard.wrap(m));
-            char cha = _alphabet.toChar(_plugboard.wrap(i));
-            result.append(cha);
+            int i = convert(_alphabet.toInt(c));
+            result.appendCodePoint(_alphabet.toCodePoint(i));
         }
         return result.toString();
     }
 
+    /** Convert the LEN alphabet indices IN[OFF .. OFF+LEN-1] into
+     *  OUT[OFF .. OFF+LEN-1], updating the state of the rotors
+     *  accordingly.  IN and OUT may be the same array.  All of the input
+     *  is checked before any of it is converted. */
+    void convert(int[] in, int[] out, int off, int len) {
+        Objects.checkFromIndexSize(off, len, in.length);
+        Objects.checkFromIndexSize(off, len, out.length);
+        int size = _alphabet.size();
+        for (int i = off; i < off + len; i += 1) {
+            if (in[i] < 0 || in[i] >= size) {
+                throw new EnigmaException("MSG NOT IN ALPHABETE");
+            }
+        }
+        for (int i = off; i < off + len; i += 1) {
+            out[i] = convert(in[i]);
+        }
+    }
+
+    /** Convert the LEN characters IN[OFF .. OFF+LEN-1] into
+     *  OUT[OFF .. OFF+LEN-1], as for convert(int[], int[], int, int).
+     *  My alphabet must not contain supplementary characters. */
+    void convert(char[] in, char[] out, int off, int len) {
+        Objects.checkFromIndexSize(off, len, in.length);
+        Objects.checkFromIndexSize(off, len, out.length);
+        int max = _alphabet.maxCodePoint();
+        if (max >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            throw error("alphabet has characters that are not chars");
+        }
+        for (int i = off; i < off + len; i += 1) {
+            if (!_alphabet.contains(in[i])) {
+                throw new EnigmaException("MSG NOT IN ALPHABETE");
+            }
+        }
+        for (int i = off; i < off + len; i += 1) {
+            out[i] = _alphabet.toChar(convert(_alphabet.toInt(in[i])));
+        }
+    }
+
+    /** Convert the LEN characters IN[OFF .. OFF+LEN-1], each a byte
+     *  holding a character code below 256, into OUT[OFF .. OFF+LEN-1], as
+     *  for convert(int[], int[], int, int).  Every character of my
+     *  alphabet must have a code below 256. */
+    void convert(byte[] in, byte[] out, int off, int len) {
+        Objects.checkFromIndexSize(off, len, in.length);
+        Objects.checkFromIndexSize(off, len, out.length);
+        if (_alphabet.maxCodePoint() > BYTE_MASK) {
+            throw error("alphabet has characters that are not bytes");
+        }
+        for (int i = off; i < off + len; i += 1) {
+            if (!_alphabet.contains(in[i] & BYTE_MASK)) {
+                throw new EnigmaException("MSG NOT IN ALPHABETE");
+            }
+        }
+        for (int i = off; i < off + len; i += 1) {
+            int c = convert(_alphabet.toInt(in[i] & BYTE_MASK));
+            out[i] = (byte) _alphabet.toCodePoint(c);
+        }
+    }
+
+    /** Mask selecting the unsigned value of a byte. */
+    static final int BYTE_MASK = 0xff;
+
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
 
@@ -224,12 +867,73 @@ class Machine {
     /** My _pawls. */
     private final int _pawls;
 
-    /** all rotors. */
+    /** Current value of tableBudget(). */
+    private long _tableBudget = MachineCore.DEFAULT_TABLE_BUDGET;
+
+    /** Current value of periodTableLimit(). */
+    private long _periodTableLimit;
+
+    /** My copies of the rotors of _catalog that I have used. */
     private final HashMap<String, Rotor> _allRotors;
 
+    /** Names of the rotors in my slots, which are never modified. */
+    private String[] _rotorNames;
+
+    /** Copy of my plugboard for snapshots, reused while my plugboard is
+     *  unchanged, or null. */
+    private Permutation _plugboardSnapshot;
+
+    /** All the rotors available to me. */
+    private final RotorCatalog _catalog;
+
     /** My rotors may. */
     private ArrayList<Rotor> _myRotors;
 
     /** plugboard .*/
     private Permutation _plugboard;
+
+    /** Setting of the rotor in each slot (the odometer). */
+    private int[] _positions;
+
+    /** Ring setting of the rotor in each slot. */
+    private int[] _rings;
+
+    /** Compiled form of my rotors and plugboard, or null if it must be
+     *  rebuilt. */
+    private MachineCore _core;
+
+    /** Notch mask of the rotor in each slot. */
+    private long[][] _notchMasks;
+
+    /** The notch positions of the rotor in each slot, in increasing
+     *  order. */
+    private int[][] _notches;
+
+    /** For the rotor in each slot, the number of its notches at
+     *  positions below P, at index P (from 0 to the alphabet size). */
+    private int[][] _notchCounts;
+
+    /** True for each slot whose rotor has a ratchet. */
+    private boolean[] _rotates;
+
+    /** Scratch flags marking the slots that step on this keypress. */
+    private boolean[] _stepping;
+
+    /** Table of my conversions at every setting of my moving rotors, or
+     *  null if there is none. */
+    private PeriodTable _periodTable;
+
+    /** True iff a period table was considered for my current rotors and
+     *  ring settings and found not to fit. */
+    private boolean _periodTableRejected;
+
+    /** Slot settings last given to setRotors, or null. */
+    private int[] _start;
+
+    /** Index in _periodTable of my current rotor settings. */
+    private int _state;
+
+    /** True iff _positions is out of date because conversions have been
+     *  done through _periodTable. */
+    private boolean _positionsStale;
 }
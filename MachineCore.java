@@ -0,0 +1,193 @@
+package enigma;
+
+/** The compiled signal path of a Machine: the wirings of the rotors in its
+ *  slots, flattened into primitive arrays, together with its plugboard.
+ *  A core reads the rotor settings, ring settings and plugboard of its
+ *  machine as they change, but must be rebuilt when the machine's rotors
+ *  are replaced.
+ *  @author annetta
+ */
+class MachineCore {
+
+    /** A core for the rotors currently in MACH, whose settings and ring
+     *  settings, indexed by slot, are POSITIONS and RINGS. */
+    MachineCore(Machine mach, int[] positions, int[] rings) {
+        _size = mach.alphabet().size();
+        _numRotors = mach.numRotors();
+        _forward = new int[_numRotors * _size];
+        _inverse = new int[_numRotors * _size];
+        for (int k = 0; k < _numRotors; k += 1) {
+            Permutation perm = mach.getRotor(k).permutation();
+            for (int i = 0; i < _size; i += 1) {
+                _forward[k * _size + i] = perm.permute(i);
+                _inverse[k * _size + i] = perm.invert(i);
+            }
+        }
+        _positions = positions;
+        _rings = rings;
+        _plugboard = mach.plugboard().forwardTable();
+        if (_size <= Rotor.MAX_SHIFTED_SIZE
+            && tableBytes(_numRotors, _size) <= mach.tableBudget()) {
+            _shiftedForward = new byte[_numRotors][];
+            _shiftedBackward = new byte[_numRotors][];
+            for (int k = 0; k < _numRotors; k += 1) {
+                _shiftedForward[k] = mach.getRotor(k).shiftedForward();
+                _shiftedBackward[k] = mach.getRotor(k).shiftedBackward();
+            }
+        } else {
+            _shiftedForward = _shiftedBackward = null;
+        }
+        int split = _numRotors - 1;
+        if (split > 0 && mach.rotates(split - 1)) {
+            split -= 1;
+        }
+        _split = split >= 2 ? split : 0;
+        _inner = new int[_size];
+    }
+
+    /** Return the number of bytes of shifted tables needed by a core with
+     *  NUMROTORS rotors over an alphabet of SIZE characters. */
+    static long tableBytes(int numRotors, int size) {
+        return 2L * numRotors * size * size;
+    }
+
+    /** Returns the result of passing C (an index in the range
+     *  0..alphabet size - 1) through the plugboard, the rotors from right
+     *  to left, the reflector, the rotors from left to right, and the
+     *  plugboard again, with the rotors at their current settings. */
+    int convert(int c) {
+        return _plugboard[throughRotors(_plugboard[c])];
+    }
+
+    /** Returns the result of passing C through the rotors from right to
+     *  left, the reflector, and the rotors from left to right, without
+     *  the plugboard. */
+    int throughRotors(int c) {
+        for (int k = _numRotors - 1; k >= _split; k -= 1) {
+            c = forward(k, c);
+        }
+        if (_split > 0) {
+            c = inner()[c];
+        }
+        for (int k = Math.max(_split, 1); k < _numRotors; k += 1) {
+            c = backward(k, c);
+        }
+        return c;
+    }
+
+    /** Note that the setting of the rotor in SLOT has changed. */
+    void stepped(int slot) {
+        if (slot < _split) {
+            _innerValid = false;
+        }
+    }
+
+    /** Note that any of the settings or ring settings of my machine's
+     *  rotors may have changed. */
+    void invalidate() {
+        _innerValid = false;
+    }
+
+    /** Return the composition of slots 0 .. _split - 1: the result of
+     *  entering slot _split - 1 from the right, reflecting, and leaving it
+     *  again, for each index. Recomputes it if any of those slots has
+     *  moved since it was last computed. */
+    private int[] inner() {
+        if (!_innerValid) {
+            for (int x = 0; x < _size; x += 1) {
+                int c = x;
+                for (int k = _split - 1; k >= 0; k -= 1) {
+                    c = forward(k, c);
+                }
+                for (int k = 1; k < _split; k += 1) {
+                    c = backward(k, c);
+                }
+                _inner[x] = c;
+            }
+            _innerValid = true;
+        }
+        return _inner;
+    }
+
+    /** Return the conversion of C by the rotor in SLOT at its current
+     *  setting. */
+    private int forward(int slot, int c) {
+        final int n = _size;
+        int off = _positions[slot] - _rings[slot];
+        if (off < 0) {
+            off += n;
+        }
+        if (_shiftedForward != null) {
+            return _shiftedForward[slot][off * n + c] & 0xff;
+        }
+        c += off;
+        if (c >= n) {
+            c -= n;
+        }
+        c = _forward[slot * n + c] - off;
+        return c < 0 ? c + n : c;
+    }
+
+    /** Return the inverse conversion of C by the rotor in SLOT at its
+     *  current setting. */
+    private int backward(int slot, int c) {
+        final int n = _size;
+        int off = _positions[slot] - _rings[slot];
+        if (off < 0) {
+            off += n;
+        }
+        if (_shiftedBackward != null) {
+            return _shiftedBackward[slot][off * n + c] & 0xff;
+        }
+        c += off;
+        if (c >= n) {
+            c -= n;
+        }
+        c = _inverse[slot * n + c] - off;
+        return c < 0 ? c + n : c;
+    }
+
+    /** Default value of Machine.tableBudget(). */
+    static final long DEFAULT_TABLE_BUDGET = 1L << 22;
+
+    /** Size of my alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots, including the reflector. */
+    private final int _numRotors;
+
+    /** Wiring of the rotor in slot K at its 0 setting, at K * _size. */
+    private final int[] _forward;
+
+    /** Inverse wiring of the rotor in slot K, at K * _size. */
+    private final int[] _inverse;
+
+    /** Current setting of the rotor in each slot, shared with my machine. */
+    private final int[] _positions;
+
+    /** Current ring setting of the rotor in each slot, shared with my
+     *  machine. */
+    private final int[] _rings;
+
+    /** Forward table of my machine's plugboard. */
+    private final int[] _plugboard;
+
+    /** Shifted forward table of the rotor in each slot, or null if this
+     *  core converts with arithmetic. */
+    private final byte[][] _shiftedForward;
+
+    /** Shifted backward table of the rotor in each slot, or null. */
+    private final byte[][] _shiftedBackward;
+
+    /** Number of leftmost slots (including the reflector) whose combined
+     *  effect is kept in _inner, or 0 if there are too few to be worth
+     *  combining.  These exclude the fast rotor and, if it rotates, the
+     *  rotor next to it, which step too often for _inner to pay off. */
+    private final int _split;
+
+    /** Composition of slots 0 .. _split - 1 at their current settings. */
+    private final int[] _inner;
+
+    /** True iff _inner reflects the current settings. */
+    private boolean _innerValid;
+}
@@ -0,0 +1,139 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** The complete state of a Machine, as recorded by Machine.snapshot: the
+ *  rotors in its slots, their settings and ring settings, and its
+ *  plugboard.  States never change, and two states are equal iff they
+ *  describe the same machine state, so they may be used as hash keys.
+ *  When the settings and ring settings fit in 64 bits, they are packed
+ *  into a single long, which is also available as packed().
+ *  @author annetta
+ */
+final class MachineState {
+
+    /** The state of a machine whose slots hold the rotors named ROTORS,
+     *  at settings POSITIONS and ring settings RINGS (one per slot, each
+     *  in the range 0 .. PLUGBOARD.size() - 1), with plugboard PLUGBOARD.
+     *  ROTORS and PLUGBOARD must never be modified afterwards; POSITIONS
+     *  and RINGS are copied. */
+    MachineState(String[] rotors, int[] positions, int[] rings,
+                 Permutation plugboard) {
+        _rotors = rotors;
+        _plugboard = plugboard;
+        int n = rotors.length;
+        _bits = 32 - Integer.numberOfLeadingZeros(plugboard.size() - 1);
+        if (2 * n * _bits <= Long.SIZE) {
+            long packed = 0;
+            for (int k = 0; k < n; k += 1) {
+                packed = (packed << _bits) | positions[k];
+                packed = (packed << _bits) | rings[k];
+            }
+            _packed = packed;
+            _wide = null;
+        } else {
+            _packed = 0;
+            _wide = new int[2 * n];
+            for (int k = 0; k < n; k += 1) {
+                _wide[2 * k] = positions[k];
+                _wide[2 * k + 1] = rings[k];
+            }
+        }
+        _hash = (Long.hashCode(_packed) * 31 + Arrays.hashCode(_wide)) * 31
+            + Arrays.hashCode(rotors);
+    }
+
+    /** Return the number of rotor slots. */
+    int numRotors() {
+        return _rotors.length;
+    }
+
+    /** Return the name of the rotor in slot K. */
+    String rotor(int k) {
+        return _rotors[k];
+    }
+
+    /** Return true iff my rotor names are those of NAMES. */
+    boolean hasRotors(String[] names) {
+        return names == _rotors || Arrays.equals(names, _rotors);
+    }
+
+    /** Return the setting of the rotor in slot K. */
+    int position(int k) {
+        return digit(2 * k);
+    }
+
+    /** Return the ring setting of the rotor in slot K. */
+    int ring(int k) {
+        return digit(2 * k + 1);
+    }
+
+    /** Return the plugboard, which must not be modified. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Return true iff my settings and ring settings are packed into a
+     *  long. */
+    boolean isPacked() {
+        return _wide == null;
+    }
+
+    /** Return my settings and ring settings packed into a long: for each
+     *  slot from left to right, the setting and then the ring setting,
+     *  each in the smallest number of bits that holds every alphabet
+     *  index, with the last at the low-order end.  Only available if
+     *  isPacked(). */
+    long packed() {
+        if (_wide != null) {
+            throw error("machine state does not fit in a long");
+        }
+        return _packed;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof MachineState)) {
+            return false;
+        }
+        MachineState other = (MachineState) obj;
+        return _hash == other._hash
+            && _packed == other._packed
+            && Arrays.equals(_wide, other._wide)
+            && other.hasRotors(_rotors)
+            && _plugboard.sameAs(other._plugboard);
+    }
+
+    @Override
+    public int hashCode() {
+        return _hash;
+    }
+
+    /** Return digit K of my settings and ring settings, counting the
+     *  setting of slot 0 as digit 0. */
+    private int digit(int k) {
+        if (_wide != null) {
+            return _wide[k];
+        }
+        int shift = (2 * _rotors.length - 1 - k) * _bits;
+        return (int) (_packed >>> shift) & ((1 << _bits) - 1);
+    }
+
+    /** Names of the rotors in each slot. */
+    private final String[] _rotors;
+    /** The plugboard. */
+    private final Permutation _plugboard;
+    /** Number of bits per packed digit. */
+    private final int _bits;
+    /** Packed settings and ring settings, if _wide is null. */
+    private final long _packed;
+    /** Settings and ring settings, alternating, or null if packed. */
+    private final int[] _wide;
+    /** My hash code. */
+    private final int _hash;
+}
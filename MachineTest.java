@@ -1,6 +1,7 @@
 package enigma;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import org.junit.Test;
 import org.junit.Rule;
 import org.junit.rules.Timeout;
@@ -19,26 +20,10 @@ public class MachineTest {
 
     private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
 
-    private static final HashMap<String, Rotor> ROTORS = new HashMap<>();
-
-    static {
-        HashMap<String, String> nav = TestUtils.NAVALA;
-        ROTORS.put("B", new Reflector("B", new Permutation(nav.get("B"), AZ)));
-        ROTORS.put("Beta",
-                new FixedRotor("Beta",
-                        new Permutation(nav.get("Beta"), AZ)));
-        ROTORS.put("III",
-                new MovingRotor("III",
-                        new Permutation(nav.get("III"), AZ), "V"));
-        ROTORS.put("IV",
-                new MovingRotor("IV", new Permutation(nav.get("IV"), AZ),
-                        "J"));
-        ROTORS.put("I",
-                new MovingRotor("I", new Permutation(nav.get("I"), AZ),
-                        "Q"));
-    }
+    private static final HashMap<String, Rotor> ROTORS =
+        TestUtils.fiveSlotNavalRotors(AZ);
 
-    private static final String[] ROTORS1 = { "B", "Beta", "III", "IV", "I" };
+    private static final String[] ROTORS1 = TestUtils.FIVE_SLOT_ORDER;
     private static final String SETTING1 = "AXLE";
 
     private Machine mach1() {
@@ -55,11 +40,70 @@ public class MachineTest {
         assertEquals(5, mach.numRotors());
         assertEquals(3, mach.numPawls());
         assertEquals(AZ, mach.alphabet());
-        assertEquals(ROTORS.get("B"), mach.getRotor(0));
-        assertEquals(ROTORS.get("Beta"), mach.getRotor(1));
-        assertEquals(ROTORS.get("III"), mach.getRotor(2));
-        assertEquals(ROTORS.get("IV"), mach.getRotor(3));
-        assertEquals(ROTORS.get("I"), mach.getRotor(4));
+        assertSame(ROTORS.get("B").wiring(), mach.getRotor(0).wiring());
+        assertSame(ROTORS.get("Beta").wiring(), mach.getRotor(1).wiring());
+        assertSame(ROTORS.get("III").wiring(), mach.getRotor(2).wiring());
+        assertSame(ROTORS.get("IV").wiring(), mach.getRotor(3).wiring());
+        assertSame(ROTORS.get("I").wiring(), mach.getRotor(4).wiring());
+    }
+
+    @Test
+    public void testSharedCatalog() {
+        RotorCatalog catalog = new RotorCatalog(ROTORS.values());
+        Machine mach = new Machine(AZ, 5, 3, catalog);
+        Machine other = new Machine(AZ, 5, 3, catalog);
+        mach.insertRotors(ROTORS1);
+        mach.setRotors("BCDE");
+        mach.setRotorRing("FGHI");
+        mach.convert("FROMHISSHOULDER");
+        mach.insertRotors(ROTORS1);
+        other.insertRotors(ROTORS1);
+        other.setRotors(SETTING1);
+        other.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                other.convert("FROMHISSHOULDERHIAWATHA"));
+        assertEquals(0, ROTORS.get("I").ring());
+        assertEquals(0, ROTORS.get("I").setting());
+        assertEquals(AZ.toInt('I'), mach.getRotor(4).ring());
+    }
+
+    @Test
+    public void testSnapshot() {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        MachineState start = mach.snapshot();
+        assertTrue(start.isPacked());
+        String msg = "FROMHISSHOULDERHIAWATHA";
+        String expected = mach.convert(msg);
+        assertNotEquals(start, mach.snapshot());
+        mach.plugboard().addCycle("(AZ)");
+        mach.setRotorRing("BBBB");
+        mach.restore(start);
+        assertEquals(start, mach.snapshot());
+        assertEquals(start.hashCode(), mach.snapshot().hashCode());
+        assertEquals(start.packed(), mach.snapshot().packed());
+        assertEquals(expected, mach.convert(msg));
+        HashSet<MachineState> seen = new HashSet<>();
+        mach.restore(start);
+        for (int i = 0; i < 100; i += 1) {
+            seen.add(mach.snapshot());
+            mach.seek(i % 10);
+        }
+        assertEquals(10, seen.size());
+    }
+
+    @Test
+    public void testSetRotorsByIndex() {
+        String msg = "FROMHISSHOULDERHIAWATHA";
+        Machine mach = mach1();
+        mach.setRotorRing("BCDE");
+        String expected = mach.convert(msg);
+        mach = mach1();
+        mach.setRotors(new int[] { 0, 0, 23, 11, 4 },
+                       new int[] { 0, 1, 2, 3, 4 });
+        assertEquals(expected, mach.convert(msg));
+        mach.seek(0);
+        assertEquals(expected, mach.convert(msg));
     }
 
     @Test
@@ -76,4 +120,190 @@ public class MachineTest {
         assertEquals("QVPQSOKOILPUBKJZPISFXDW",
                 mach.convert("FROMHISSHOULDERHIAWATHA"));
     }
+
+    @Test
+    public void testConvertWithoutTables() {
+        Machine mach = mach1();
+        mach.setTableBudget(0);
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                mach.convert("FROMHISSHOULDERHIAWATHA"));
+    }
+
+    @Test
+    public void testConvertWithPeriodTable() {
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        Machine plain = mach1();
+        String expected = plain.convert(msg);
+        Machine mach = mach1();
+        mach.setPeriodTableLimit(1 << 20);
+        assertEquals(expected, mach.convert(msg));
+        for (int k = 1; k < 5; k += 1) {
+            assertEquals(plain.setting(k), mach.setting(k));
+        }
+    }
+
+    @Test
+    public void testSkip() {
+        java.util.Random rand = new java.util.Random(61);
+        Machine mach = mach1(), stepped = mach1();
+        for (int trial = 0; trial < 20; trial += 1) {
+            String setting = "";
+            for (int k = 0; k < 4; k += 1) {
+                setting += (char) ('A' + rand.nextInt(26));
+            }
+            mach.setRotors(setting);
+            stepped.setRotors(setting);
+            int n = rand.nextInt(3000);
+            mach.skip(n);
+            int[] after = new int[5];
+            for (int k = 1; k < 5; k += 1) {
+                after[k] = mach.setting(k);
+            }
+            for (int i = 0; i < n; i += 1) {
+                stepped.convert(0);
+            }
+            for (int k = 1; k < 5; k += 1) {
+                assertEquals(stepped.setting(k), after[k]);
+            }
+        }
+    }
+
+    @Test
+    public void testSkipOnSmallMachines() {
+        java.util.Random rand = new java.util.Random(8);
+        String letters = "ABCDEFGH";
+        for (int trial = 0; trial < 300; trial += 1) {
+            int size = 2 * (1 + rand.nextInt(4));
+            Alphabet alpha = new Alphabet(letters.substring(0, size));
+            int num = 2 + rand.nextInt(5), pawls = 1 + rand.nextInt(num - 1);
+            java.util.ArrayList<Rotor> rotors = new java.util.ArrayList<>();
+            String reflector = "";
+            for (int c = 0; c < size; c += 2) {
+                reflector += "(" + letters.substring(c, c + 2) + ")";
+            }
+            rotors.add(new Reflector("R", new Permutation(reflector, alpha)));
+            String[] names = new String[num];
+            names[0] = "R";
+            String setting = "";
+            for (int k = 1; k < num; k += 1) {
+                names[k] = "X" + k;
+                Permutation perm = new Permutation("", alpha);
+                if (k < num - pawls) {
+                    rotors.add(new FixedRotor(names[k], perm));
+                } else {
+                    String notches = "";
+                    for (int c = 0; c < size; c += 1) {
+                        if (rand.nextInt(3) == 0) {
+                            notches += letters.charAt(c);
+                        }
+                    }
+                    rotors.add(new MovingRotor(names[k], perm, notches));
+                }
+                setting += letters.charAt(rand.nextInt(size));
+            }
+            Machine mach = new Machine(alpha, num, pawls, rotors);
+            Machine stepped = new Machine(alpha, num, pawls, rotors);
+            mach.insertRotors(names);
+            stepped.insertRotors(names);
+            mach.setRotors(setting);
+            stepped.setRotors(setting);
+            int n = rand.nextInt(5000);
+            mach.skip(n);
+            for (int i = 0; i < n; i += 1) {
+                stepped.convert(0);
+            }
+            for (int k = 1; k < num; k += 1) {
+                assertEquals(stepped.setting(k), mach.setting(k));
+            }
+            long far = rand.nextLong() >>> 14, part = far / 3;
+            mach.seek(far);
+            stepped.seek(part);
+            stepped.skip(far - part);
+            for (int k = 1; k < num; k += 1) {
+                assertEquals(stepped.setting(k), mach.setting(k));
+            }
+        }
+    }
+
+    @Test
+    public void testSeek() {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        String msg = "FROMHISSHOULDERHIAWATHA";
+        String expected = mach.convert(msg);
+        mach.seek(4);
+        assertEquals(expected.substring(4), mach.convert(msg.substring(4)));
+        mach.seek(1000000000000L);
+        String far = mach.convert(msg);
+        mach.seek(0);
+        mach.skip(999999999999L);
+        mach.convert("A");
+        assertEquals(far, mach.convert(msg));
+    }
+
+    @Test
+    public void testSeekAfterInsertRotors() {
+        Machine mach = mach1();
+        mach.convert("FROMHISSHOULDERHIAWATHA");
+        mach.insertRotors(new String[] { "B", "Beta", "I", "III", "IV" });
+        int[] inserted = new int[5];
+        for (int k = 1; k < 5; k += 1) {
+            inserted[k] = mach.setting(k);
+        }
+        String expected = mach.convert("HIAWATHA");
+        mach.seek(0);
+        for (int k = 1; k < 5; k += 1) {
+            assertEquals(inserted[k], mach.setting(k));
+        }
+        assertEquals(expected, mach.convert("HIAWATHA"));
+    }
+
+    @Test
+    public void testConvertParallel() {
+        java.util.Random rand = new java.util.Random(3);
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 2 * ParallelConverter.MIN_CHUNK + 7; i += 1) {
+            msg.append((char) ('A' + rand.nextInt(26)));
+        }
+        Machine serial = mach1(), parallel = mach1();
+        parallel.setPeriodTableLimit(1 << 20);
+        String expected = serial.convert(msg.toString());
+        ParallelConverter conv = new ParallelConverter(3);
+        String grouped = conv.convertGrouped(parallel, msg.toString());
+        conv.shutdown();
+        assertEquals(expected, grouped.replace(" ", ""));
+        assertEquals(' ', grouped.charAt(5));
+        assertEquals(serial.convert("HIAWATHA"), parallel.convert("HIAWATHA"));
+    }
+
+    @Test
+    public void testConvertBuffers() {
+        String msg = "FROMHISSHOULDERHIAWATHA";
+        String expected = mach1().convert(msg);
+        Machine mach = mach1();
+        char[] chars = ("xx" + msg).toCharArray();
+        mach.convert(chars, chars, 2, msg.length());
+        assertEquals("xx" + expected, new String(chars));
+        mach = mach1();
+        byte[] in = msg.getBytes(), out = new byte[in.length];
+        mach.convert(in, out, 0, in.length);
+        assertEquals(expected, new String(out));
+        mach = mach1();
+        int[] indices = new int[msg.length()];
+        for (int i = 0; i < indices.length; i += 1) {
+            indices[i] = AZ.toInt(msg.charAt(i));
+        }
+        mach.convert(indices, indices, 0, indices.length);
+        for (int i = 0; i < indices.length; i += 1) {
+            assertEquals(expected.charAt(i), AZ.toChar(indices[i]));
+        }
+        try {
+            mach.convert("AB?".toCharArray(), new char[3], 0, 3);
+            fail("expected an error");
+        } catch (EnigmaException excp) {
+            assertEquals(mach1().convert(msg + "AB"),
+                    expected + mach.convert("AB"));
+        }
+    }
 }
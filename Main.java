@@ -1,8 +1,14 @@
 package enigma;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -16,6 +22,7 @@ import java.util.regex.Pattern;
 import ucb.util.CommandArgs;
 
 import static enigma.EnigmaException.*;
+import static enigma.Machine.BYTE_MASK;
 
 /** Enigma simulator.
  *  @author annetta
@@ -30,18 +37,82 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.  The option --table-budget=BYTES limits the
+     *  memory used for precomputed rotor tables; machines that would need
+     *  more use arithmetic instead.  The option --period-table=BYTES
+     *  enables tables of every rotor position of a machine, when they fit
+     *  in BYTES.  The option --parallel[=THREADS] converts long messages
+     *  on THREADS threads (by default, one per processor).  The option
+     *  --mmap, which requires both INPUT and OUTPUT, reads and writes
+     *  them by mapping them into memory.  The option --pipeline reads,
+     *  converts and writes messages on separate threads; it cannot be
+     *  combined with --verbose or --segments, and requires an alphabet
+     *  of ASCII characters.  The option --segments[=THREADS] converts
+     *  the messages following different settings lines concurrently on
+     *  THREADS threads; it cannot be combined with --verbose, and
+     *  requires an alphabet of ASCII characters.  The option
+     *  --settings-cache=LINES sets the number of distinct settings lines
+     *  whose results are remembered (0 for none); with --verbose, the
+     *  cache's hits and misses are reported at the end.
+     *
+     *  With --compile-config CONFIG IMAGE, writes the configuration in
+     *  CONFIG to IMAGE in a compiled binary form, which may then be given
+     *  in place of a configuration file, and processes no messages. */
     public static void main(String... args) {
         try {
             CommandArgs options =
-                new CommandArgs("--verbose --=(.*){1,3}", args);
+                new CommandArgs("--verbose --mmap --pipeline --compile-config "
+                                + "--table-budget=(\\d+) "
+                                + "--period-table=(\\d+) "
+                                + "--parallel=(\\d*) "
+                                + "--segments=(\\d*) "
+                                + "--settings-cache=(\\d+) "
+                                + "--=(.*){1,3}", args);
             if (!options.ok()) {
-                throw error("Usage: java enigma.Main [--verbose] "
-                            + "[INPUT [OUTPUT]]");
+                throw error("Usage: java enigma.Main --compile-config CONFIG "
+                            + "IMAGE | [--verbose] [--mmap] "
+                            + "[--pipeline] "
+                            + "[--table-budget=BYTES] "
+                            + "[--period-table=BYTES] "
+                            + "[--parallel[=THREADS]] "
+                            + "[--segments[=THREADS]] "
+                            + "[--settings-cache=LINES] "
+                            + "CONFIG [INPUT [OUTPUT]]");
             }
 
+            if (options.contains("--segments")
+                && options.contains("--pipeline")) {
+                throw error("--segments and --pipeline cannot be combined");
+            }
+            if (options.contains("--pipeline")
+                && options.contains("--verbose")) {
+                throw error("--pipeline and --verbose cannot be combined");
+            }
+            if (options.contains("--segments")
+                && options.contains("--verbose")) {
+                throw error("--segments and --verbose cannot be combined");
+            }
             _verbose = options.contains("--verbose");
-            new Main(options.get("--")).process();
+            _mmap = options.contains("--mmap");
+            _pipeline = options.contains("--pipeline");
+            _tableBudget = options.getLong("--table-budget", 10,
+                                           MachineCore.DEFAULT_TABLE_BUDGET);
+            _periodTableLimit = options.getLong("--period-table", 10, 0);
+            _settingsCacheSize = options.getInt("--settings-cache", 10,
+                                                DEFAULT_SETTINGS_CACHE);
+            _parallelism = _segmentThreads = 0;
+            if (options.contains("--parallel") && !_verbose) {
+                _parallelism = threads(options, "--parallel");
+            }
+            if (options.contains("--segments")) {
+                _segmentThreads = threads(options, "--segments");
+            }
+            _compileConfig = options.contains("--compile-config");
+            if (_compileConfig) {
+                new Main(options.get("--")).compileConfig();
+            } else {
+                new Main(options.get("--")).process();
+            }
             return;
         } catch (EnigmaException excp) {
             System.err.printf("Error: %s%n", excp.getMessage());
@@ -52,21 +123,84 @@ public final class Main {
     /** Open the necessary files for non-option arguments ARGS (see comment
       *  on main). */
     Main(List<String> args) {
-        _config = getInput(args.get(0));
+        _image = ConfigImage.load(args.get(0));
+        if (_image == null) {
+            _config = getInput(args.get(0));
+        }
+
+        if (_compileConfig) {
+            if (args.size() != 2) {
+                throw error("--compile-config requires CONFIG and IMAGE");
+            }
+            _imageName = args.get(1);
+            return;
+        }
+
+        if (_mmap) {
+            if (args.size() != 3) {
+                throw error("--mmap requires INPUT and OUTPUT files");
+            }
+            _inputFile = getChannel(args.get(1));
+            _inputChannel = _inputFile;
+            _closeInput = true;
+            _output = new MessageWriter(getMappedOutput(args.get(2)),
+                                        _verbose);
+            _closeOutput = true;
+            return;
+        }
 
         if (args.size() > 1) {
-            _input = getInput(args.get(1));
+            _inputChannel = getChannel(args.get(1));
+            _closeInput = true;
         } else {
-            _input = new Scanner(System.in);
+            _inputChannel = Channels.newChannel(System.in);
         }
 
         if (args.size() > 2) {
-            _output = getOutput(args.get(2));
+            _output = new MessageWriter(getOutput(args.get(2)), _verbose);
+            _closeOutput = true;
         } else {
-            _output = System.out;
+            _output = new MessageWriter(System.out,
+                                        _verbose || System.console() != null);
+        }
+    }
+
+    /** Return the number of threads requested by OPTION in OPTIONS: its
+     *  value, but at least 1, or one per processor if it is absent or
+     *  has an empty value. */
+    static int threads(CommandArgs options, String option) {
+        if (!options.contains(option) || options.getFirst(option).isEmpty()) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return Math.max(1, options.getInt(option));
+    }
+
+    /** Prepare to read only the configuration file or image named
+     *  CONFIG. */
+    private Main(String config) {
+        _image = ConfigImage.load(config);
+        if (_image == null) {
+            _config = getInput(config);
         }
     }
 
+    /** Return a machine configured from the configuration file or image
+     *  named NAME, with no rotors inserted. */
+    static Machine configure(String name) {
+        return new Main(name).readConfig();
+    }
+
+    /** Prepare to check settings lines for machines over ALPHA only. */
+    private Main(Alphabet alpha) {
+        _alphabet = alpha;
+    }
+
+    /** Set MACH, a machine returned by configure, according to the
+     *  settings line SETTINGS, checking it as for a line of input. */
+    static void configure(Machine mach, String settings) {
+        new Main(mach.alphabet()).applySettings(mach, settings);
+    }
+
     /** Return a Scanner reading from the file named NAME. */
     private Scanner getInput(String name) {
         try {
@@ -76,20 +210,158 @@ public final class Main {
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return a channel reading from the file named NAME. */
+    private FileChannel getChannel(String name) {
+        try {
+            return FileChannel.open(Paths.get(name));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a stream writing to the file named NAME by mapping it into
+     *  memory. */
+    private OutputStream getMappedOutput(String name) {
         try {
-            return new PrintStream(new File(name));
+            return new MappedOutputStream(
+                FileChannel.open(Paths.get(name), StandardOpenOption.CREATE,
+                                 StandardOpenOption.TRUNCATE_EXISTING,
+                                 StandardOpenOption.READ,
+                                 StandardOpenOption.WRITE));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a stream writing to the file named NAME. */
+    private OutputStream getOutput(String name) {
+        try {
+            return new FileOutputStream(name);
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
     /** Configure an Enigma machine from the contents of configuration
-     *  file _config and apply it to the messages in _input, sending the
-     *  results to _output. */
+     *  file _config and apply it to the messages in _inputChannel, sending
+     *  the results to _output. */
     private void process() {
         Machine e = readConfig();
+        e.setTableBudget(_tableBudget);
+        e.setPeriodTableLimit(_periodTableLimit);
+        if (_settingsCacheSize > 0) {
+            _settingsCache = new SettingsCache(_settingsCacheSize);
+        }
+        if (_parallelism > 0) {
+            _parallel = new ParallelConverter(_parallelism);
+        }
+        RuntimeException failure = null;
+        try {
+            if (MessageReader.handles(_alphabet)) {
+                processStream(e);
+            } else if (_pipeline) {
+                throw error("--pipeline requires an alphabet of ASCII "
+                            + "characters");
+            } else if (_segmentThreads > 0) {
+                throw error("--segments requires an alphabet of ASCII "
+                            + "characters");
+            } else {
+                _input = new Scanner(_inputChannel);
+                processLines(e);
+            }
+        } catch (RuntimeException excp) {
+            failure = excp;
+            throw excp;
+        } finally {
+            if (_parallel != null) {
+                _parallel.shutdown();
+            }
+            finish(failure);
+        }
+        if (_verbose && _settingsCache != null) {
+            System.err.printf("settings cache: %d hits, %d misses%n",
+                              _settingsCache.hits(),
+                              _settingsCache.misses());
+        }
+    }
+
+    /** Flush _output, and close it and _inputChannel if I opened them.
+     *  If FAILURE is not null, it is propagating, and an error from
+     *  flushing or closing is added to it as suppressed rather than
+     *  thrown. */
+    private void finish(RuntimeException failure) {
+        RuntimeException problem = null;
+        try {
+            if (_closeOutput) {
+                _output.close();
+            } else {
+                _output.flush();
+            }
+        } catch (EnigmaException excp) {
+            problem = excp;
+        }
+        if (_closeInput) {
+            try {
+                _inputChannel.close();
+            } catch (IOException excp) {
+                if (problem == null) {
+                    problem = error("could not close input: %s",
+                                    excp.getMessage());
+                }
+            }
+        }
+        if (problem == null) {
+            return;
+        } else if (failure != null) {
+            failure.addSuppressed(problem);
+        } else {
+            throw problem;
+        }
+    }
+
+    /** Apply E to the messages in _inputChannel, reading them with a
+     *  MessageReader, which requires an alphabet of ASCII characters. */
+    private void processStream(Machine e) {
+        MessageReader in;
+        if (_inputFile != null) {
+            in = MessageReader.mapped(_inputFile, TEXT_CHUNK);
+        } else {
+            in = new MessageReader(_inputChannel, TEXT_CHUNK);
+        }
+        int kind = in.next();
+        if (kind == MessageReader.BLANK && in.emptyLine()) {
+            throw new EnigmaException("settingline format -EMPTY");
+        }
+        if (kind != MessageReader.SETTINGS) {
+            throw new EnigmaException("input not start with *");
+        }
+        setUp(e, in.settings());
+        if (_segmentThreads > 0) {
+            SegmentConverter segments = new SegmentConverter(_segmentThreads);
+            try {
+                segments.run(in, _output, e, (t) -> setUp(e, t));
+            } finally {
+                segments.shutdown();
+            }
+            return;
+        }
+        if (_pipeline) {
+            new Pipeline(in, _output, e, (t) -> setUp(e, t), _parallel).run();
+            return;
+        }
+        while ((kind = in.next()) != MessageReader.END_OF_INPUT) {
+            if (kind == MessageReader.SETTINGS) {
+                setUp(e, in.settings());
+            } else if (kind == MessageReader.TEXT) {
+                printMessageText(e, in.text(), in.textLength());
+            } else {
+                _output.println();
+            }
+        }
+    }
+
+    /** Apply E to the messages in _input, one line at a time. */
+    private void processLines(Machine e) {
         String s = _input.nextLine();
         if (s.equals("")) {
             throw new EnigmaException("settingline format -EMPTY");
@@ -109,6 +381,10 @@ public final class Main {
                         .replaceAll("\\n", "");
                 if (checkMatch(s, pEmpty) || s.equals("")) {
                     _output.println();
+                } else if (_parallel != null
+                           && ParallelConverter.worthwhile(e, s)) {
+                    checkAlpha(s);
+                    _output.printGrouped(_parallel.convertGrouped(e, s));
                 } else {
                     checkAlpha(s);
                     String out = e.convert(s);
@@ -119,9 +395,23 @@ public final class Main {
         }
     }
 
+    /** Write the configuration in _config to the file named _imageName in
+     *  compiled form, which may be given to Main in place of the
+     *  configuration. */
+    private void compileConfig() {
+        Machine e = readConfig();
+        new ConfigImage(_alphabet, e.numRotors(), e.numPawls(), e.catalog())
+            .write(_imageName);
+    }
+
     /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
+     *  file _config, or from the compiled configuration _image. */
     private Machine readConfig() {
+        if (_image != null) {
+            _alphabet = _image.alphabet();
+            return new Machine(_alphabet, _image.numRotors(),
+                               _image.numPawls(), _image.catalog());
+        }
         try {
             String alpha = _config.next();
             if (!checkMatch(alpha, pAlpha)) {
@@ -163,7 +453,8 @@ public final class Main {
             if (pawls > movRcnt) {
                 throw new EnigmaException("pawls too large");
             }
-            return new Machine(_alphabet, numrotors, pawls, alls.values());
+            return new Machine(_alphabet, numrotors, pawls,
+                               new RotorCatalog(alls.values()));
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
         }
@@ -218,6 +509,20 @@ public final class Main {
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
     private void setUp(Machine M, String settings) {
+        if (_settingsCache == null) {
+            applySettings(M, settings);
+        } else if (!_settingsCache.apply(M, settings)) {
+            Permutation before = new Permutation(M.plugboard());
+            boolean ringsGiven = applySettings(M, settings);
+            _settingsCache.put(settings, before, ringsGiven, M);
+        }
+    }
+
+    /** Set M according to the specification given on SETTINGS, as for
+     *  setUp, without using the settings cache.  Returns true iff
+     *  SETTINGS gave the ring settings. */
+    private boolean applySettings(Machine M, String settings) {
+        boolean ringsGiven = false;
         String[] setting = settings.split("\\s");
         String[] s = new String[M.numRotors()];
         for (int i = 1; i <= M.numRotors(); i++) {
@@ -227,13 +532,14 @@ public final class Main {
             throw new EnigmaException("settingline format -repeated rotor");
         }
         for (String c : s) {
-            if (!M.getAllR().containsKey(c)) {
+            if (!M.hasRotor(c)) {
                 throw new EnigmaException("R not in all_Rotor, MISNAME");
             }
         }
         M.insertRotors(s);
         checkPos(M);
-        if (setting[M.numRotors() + 1].length() != s.length - 1) {
+        String posns = setting[M.numRotors() + 1];
+        if (posns.codePointCount(0, posns.length()) != s.length - 1) {
             throw new EnigmaException("settingline format -rotor length");
         }
         if (!checkMatch(setting[M.numRotors() + 1], pAlpha)) {
@@ -251,6 +557,7 @@ public final class Main {
                     checkAlpha(setting[M.numRotors() + 2]);
                     M.setRotorRing(setting[M.numRotors() + 2]);
                     ring = 1;
+                    ringsGiven = true;
                 } catch (Exception e) {
                     System.out.print("");
                 }
@@ -264,6 +571,7 @@ public final class Main {
                 ring++;
             }
         }
+        return ringsGiven;
     }
 
     /** Return true iff verbose option specified. */
@@ -274,19 +582,32 @@ public final class Main {
     /** Print MSG in groups of five (except that the last group may
      *  have fewer letters). */
     private void printMessageLine(String msg) {
-        int j = 0;
-        for (int i = 0; i < msg.length(); i++) {
-            _output.print(msg.charAt(i));
-            j += 1;
-            if ((i + 1) % 5 == 0 && j != msg.length()) {
-                _output.print(" ");
+        _output.print(msg);
+        _output.println();
+    }
+
+    /** Convert the LEN characters TEXT[0 .. LEN-1] of a message line with
+     *  E and print them in groups of five, continuing the current output
+     *  line. */
+    private void printMessageText(Machine e, byte[] text, int len) {
+        for (int i = 0; i < len; i += 1) {
+            if (!_alphabet.contains(text[i] & BYTE_MASK)) {
+                throw new EnigmaException("contains char not in _alpha");
             }
         }
-        _output.println();
+        if (_parallel != null) {
+            _parallel.convert(e, text, 0, len);
+        } else {
+            e.convert(text, text, 0, len);
+        }
+        _output.print(text, 0, len);
     }
 
     void checkAlpha(String s) {
-        for (char c : s.toCharArray()) {
+        int k = 0;
+        while (k < s.length()) {
+            int c = s.codePointAt(k);
+            k += Character.charCount(c);
             if (!_alphabet.contains(c)) {
                 throw new EnigmaException("contains char not in _alpha");
             }
@@ -300,13 +621,13 @@ public final class Main {
         }
         s = s.replaceAll("\\(", "").replaceAll("\\)", "");
         checkAlpha(s);
-        for (int i = 0; i < s.length(); i++) {
-            for (int j = i + 1; j < s.length(); j++) {
-                if (s.charAt(i) == s.charAt(j)) {
-                    throw new EnigmaException("repeat perm");
-                }
+        boolean[] seen = new boolean[_alphabet.size()];
+        s.codePoints().map(_alphabet::toInt).forEach(c -> {
+            if (seen[c]) {
+                throw new EnigmaException("repeat perm");
             }
-        }
+            seen[c] = true;
+        });
     }
 
     void checkPos(Machine M) {
@@ -382,14 +703,78 @@ public final class Main {
     private Alphabet _alphabet;
 
     /** Source of input messages. */
+    private ReadableByteChannel _inputChannel;
+
+    /** The input file, when it is read by mapping it into memory
+     *  (--mmap), and otherwise null. */
+    private FileChannel _inputFile;
+
+    /** Source of input messages, when they are read a line at a time. */
     private Scanner _input;
 
-    /** Source of machine configuration. */
+    /** Largest number of message characters converted at once. */
+    private static final int TEXT_CHUNK = 1 << 20;
+
+
+    /** Source of machine configuration, unless it is compiled. */
     private Scanner _config;
 
-    /** File for encoded/decoded messages. */
-    private PrintStream _output;
+    /** The compiled machine configuration, or null if _config is
+     *  text. */
+    private ConfigImage _image;
+
+    /** File to which --compile-config writes the compiled
+     *  configuration. */
+    private String _imageName;
+
+    /** True if --compile-config specified. */
+    private static boolean _compileConfig;
+
+    /** Destination of encoded/decoded messages. */
+    private MessageWriter _output;
+
+    /** True iff I opened the stream under _output, and so close it. */
+    private boolean _closeOutput;
+
+    /** True iff I opened _inputChannel, and so close it. */
+    private boolean _closeInput;
+
+    /** True if --pipeline specified (and not --verbose). */
+    private static boolean _pipeline;
+
+    /** True if --mmap specified. */
+    private static boolean _mmap;
 
     /** True if --verbose specified. */
     private static boolean _verbose;
+
+    /** Number of threads requested with --parallel, or 0 if messages are
+     *  converted serially. */
+    private static int _parallelism;
+
+    /** Number of threads requested with --segments, or 0 if messages
+     *  following different settings lines are converted in turn. */
+    private static int _segmentThreads;
+
+    /** Bytes of shifted rotor tables my machine's core may use, from
+     *  --table-budget. */
+    private static long _tableBudget;
+
+    /** Bytes my machine may spend on a period table, from
+     *  --period-table, or 0 for none. */
+    private static long _periodTableLimit;
+
+    /** Default number of settings lines in the settings cache. */
+    static final int DEFAULT_SETTINGS_CACHE = 64;
+
+    /** Number of settings lines requested with --settings-cache. */
+    private static int _settingsCacheSize;
+
+    /** Results of recent settings lines, or null if they are not
+     *  cached. */
+    private SettingsCache _settingsCache;
+
+    /** Converter for long messages, or null if messages are converted
+     *  serially. */
+    private ParallelConverter _parallel;
 }
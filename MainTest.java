@@ -0,0 +1,139 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Main class.  Those for its
+ *  options compare the output of each of the acceptance tests in
+ *  testing/correct with an option to their output without it.
+ *  @author annetta
+ */
+public class MainTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkMmap() throws IOException {
+        checkSameOutput("--mmap");
+    }
+
+    @Test
+    public void checkPipeline() throws IOException {
+        checkSameOutput("--pipeline");
+        checkSameOutputOnLongInput(3 * Pipeline.MAX_EVENTS, 40,
+                                   "--pipeline");
+    }
+
+    @Test
+    public void checkSegments() throws IOException {
+        checkSameOutput("--segments=3");
+        checkSameOutputOnLongInput(2 * SegmentConverter.MAX_LINES + 5,
+                                   10000, "--segments=3");
+    }
+
+    @Test
+    public void checkSupplementaryCycles() {
+        String grin = new String(Character.toChars(0x1F600));
+        String beam = new String(Character.toChars(0x1F601));
+        Alphabet alpha = new Alphabet(grin + beam + "AB");
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R", new Permutation(
+            "(" + grin + "A) (" + beam + "B)", alpha)));
+        rotors.add(new MovingRotor("M", new Permutation(
+            "(" + grin + beam + "AB)", alpha), "A"));
+        Machine mach = new Machine(alpha, 2, 1, rotors);
+        Main.configure(mach, "* R M " + beam + " (" + grin + beam + ")");
+        assertEquals(1, mach.plugboard().permute(0));
+        assertEquals(0, mach.plugboard().permute(1));
+    }
+
+    /** Directory holding the acceptance tests. */
+    private static final File CORRECT = new File("testing/correct");
+
+    /** Assert that Main, given OPTIONS, produces the same output, byte
+     *  for byte, as it does without them for each acceptance test. */
+    private static void checkSameOutput(String... options)
+        throws IOException {
+        File[] inputs = CORRECT.listFiles((d, name) -> name.endsWith(".in"));
+        assertNotNull("no acceptance tests in " + CORRECT, inputs);
+        Arrays.sort(inputs);
+        assertTrue(inputs.length > 0);
+        for (File input : inputs) {
+            byte[] expected = run(input);
+            byte[] actual = run(input, options);
+            assertArrayEquals(input.getName(), expected, actual);
+        }
+    }
+
+    /** Assert that Main, given OPTIONS, produces the same output, byte
+     *  for byte, as it does without them for a random input of LINES
+     *  message lines with a settings line before every EVERY of them. */
+    private static void checkSameOutputOnLongInput(int lines, int every,
+                                                   String... options)
+        throws IOException {
+        Random rand = new Random(lines);
+        StringBuilder input = new StringBuilder();
+        for (int line = 0; line < lines; line += 1) {
+            if (line % every == 0) {
+                input.append("* B Beta III IV I ");
+                for (int k = 0; k < 4; k += 1) {
+                    input.append((char) ('A' + rand.nextInt(26)));
+                }
+                input.append(line % (2 * every) == 0 ? " AAAA" : " CDFG");
+                input.append(" (HQ) (EX)\n");
+            }
+            int len = rand.nextInt(7) == 0 ? 0 : rand.nextInt(100);
+            for (int i = 0; i < len; i += 1) {
+                input.append(i % 9 == 8 ? ' '
+                             : (char) ('A' + rand.nextInt(26)));
+            }
+            input.append('\n');
+        }
+        Path file = Files.createTempFile("enigma", ".in");
+        try {
+            Files.write(file, input.toString().getBytes("US-ASCII"));
+            assertArrayEquals(run(file.toFile()),
+                              run(file.toFile(), options));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /** Return the output of Main on the acceptance test INPUT, with
+     *  OPTIONS, using the configuration file that test-correct uses. */
+    private static byte[] run(File input, String... options)
+        throws IOException {
+        String base = input.getPath();
+        base = base.substring(0, base.length() - ".in".length());
+        File config = new File(base + ".conf");
+        if (!base.startsWith(CORRECT.getPath()) || !config.exists()) {
+            config = new File(CORRECT, "default.conf");
+        }
+        Path output = Files.createTempFile("enigma", ".out");
+        try {
+            List<String> args = new ArrayList<>(Arrays.asList(options));
+            args.add(config.getPath());
+            args.add(input.getPath());
+            args.add(output.toString());
+            Main.main(args.toArray(new String[0]));
+            return Files.readAllBytes(output);
+        } finally {
+            Files.delete(output);
+        }
+    }
+}
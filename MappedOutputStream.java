@@ -0,0 +1,88 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static enigma.EnigmaException.*;
+
+/** An output stream that writes a file by mapping it into memory a
+ *  window at a time, extending the file as needed.  Closing the stream
+ *  truncates the file to the bytes actually written.
+ *  @author annetta
+ */
+class MappedOutputStream extends OutputStream {
+
+    /** Size of the windows in which the file is written. */
+    static final int MAP_WINDOW = 1 << 26;
+
+    /** A stream writing to OUTPUT, which must be open for reading and
+     *  writing, from its beginning. */
+    MappedOutputStream(FileChannel output) {
+        this(output, MAP_WINDOW);
+    }
+
+    /** A stream writing to OUTPUT, which must be open for reading and
+     *  writing, from its beginning, WINDOW bytes at a time. */
+    MappedOutputStream(FileChannel output, int window) {
+        if (window <= 0) {
+            throw error("map window must be positive");
+        }
+        _output = output;
+        _windowSize = window;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (_window == null || !_window.hasRemaining()) {
+            mapNext();
+        }
+        _window.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        while (len > 0) {
+            if (_window == null || !_window.hasRemaining()) {
+                mapNext();
+            }
+            int n = Math.min(len, _window.remaining());
+            _window.put(bytes, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!_output.isOpen()) {
+            return;
+        }
+        long size = _position;
+        if (_window != null) {
+            size += _window.position();
+            _window = null;
+        }
+        _output.truncate(size);
+        _output.close();
+    }
+
+    /** Map the window following the current one. */
+    private void mapNext() throws IOException {
+        if (_window != null) {
+            _position += _window.position();
+        }
+        _window = _output.map(FileChannel.MapMode.READ_WRITE, _position,
+                              _windowSize);
+    }
+
+    /** The file written. */
+    private final FileChannel _output;
+    /** Number of bytes of _output mapped at a time. */
+    private final int _windowSize;
+    /** Position in _output of the start of _window. */
+    private long _position;
+    /** The current window of _output, or null if none has been mapped. */
+    private MappedByteBuffer _window;
+}
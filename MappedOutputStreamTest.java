@@ -0,0 +1,96 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the MappedOutputStream class.
+ *  @author annetta
+ */
+public class MappedOutputStreamTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    /** Return a channel for writing and reading FILE. */
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.TRUNCATE_EXISTING,
+                                StandardOpenOption.READ,
+                                StandardOpenOption.WRITE);
+    }
+
+    @Test
+    public void checkSmallWindows() throws IOException {
+        Path file = Files.createTempFile("enigma", ".out");
+        try {
+            byte[] data = new byte[1000];
+            for (int i = 0; i < data.length; i += 1) {
+                data[i] = (byte) ('A' + i % 26);
+            }
+            MappedOutputStream out = new MappedOutputStream(open(file), 64);
+            out.write(data, 0, 10);
+            out.write(data[10]);
+            out.write(data, 11, 200);
+            out.write(data, 211, data.length - 211);
+            out.close();
+            out.close();
+            assertArrayEquals(data, Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void checkTruncatesOnClose() throws IOException {
+        Path file = Files.createTempFile("enigma", ".out");
+        try {
+            Files.write(file, new byte[500]);
+            MappedOutputStream out = new MappedOutputStream(open(file), 64);
+            out.close();
+            assertEquals(0, Files.size(file));
+            out = new MappedOutputStream(open(file), 64);
+            out.write(new byte[] { 'A', 'B', 'C' }, 0, 3);
+            out.close();
+            assertArrayEquals(new byte[] { 'A', 'B', 'C' },
+                              Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void checkFullWindowRollover() throws IOException {
+        Path file = Files.createTempFile("enigma", ".out");
+        try {
+            int window = MappedOutputStream.MAP_WINDOW;
+            byte[] block = new byte[1 << 20];
+            Arrays.fill(block, (byte) 'X');
+            MappedOutputStream out = new MappedOutputStream(open(file));
+            for (int n = 0; n < window - 3; n += block.length) {
+                out.write(block, 0, Math.min(block.length, window - 3 - n));
+            }
+            out.write(new byte[] { 'A', 'B', 'C', 'D', 'E' }, 0, 5);
+            out.close();
+            assertEquals(window + 2, Files.size(file));
+            try (FileChannel in = FileChannel.open(file)) {
+                java.nio.ByteBuffer tail = java.nio.ByteBuffer.allocate(6);
+                in.read(tail, window - 4);
+                assertArrayEquals(new byte[] { 'X', 'A', 'B', 'C', 'D', 'E' },
+                                  tail.array());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
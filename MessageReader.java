@@ -0,0 +1,317 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+import static enigma.Machine.BYTE_MASK;
+
+/** Reads the input of Main directly from a channel, one byte at a time
+ *  through a reusable buffer, for alphabets of ASCII characters.  The
+ *  input is split into settings lines, which are returned whole, and
+ *  message lines, whose characters are returned in chunks of bounded
+ *  size with whitespace removed.  Lines end at "\n", "\r" or "\r\n", as
+ *  for Scanner.nextLine.  A file may also be read by mapping it into
+ *  memory a window at a time, rather than copying it into a buffer.
+ *  @author annetta
+ */
+class MessageReader {
+
+    /** next() result: a complete settings line, available from
+     *  settings(). */
+    static final int SETTINGS = 0;
+    /** next() result: more characters of the current message line,
+     *  available from text(). */
+    static final int TEXT = 1;
+    /** next() result: the end of a message line containing at least one
+     *  character. */
+    static final int END_OF_LINE = 2;
+    /** next() result: a line with no message characters, which is
+     *  printed as an empty line.  emptyLine() tells whether it had no
+     *  characters at all. */
+    static final int BLANK = 3;
+    /** next() result: the end of the input. */
+    static final int END_OF_INPUT = 4;
+
+    /** Size of the input buffer. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Size of the windows in which mapped files are read. */
+    static final int MAP_WINDOW = 1 << 28;
+
+    /** A reader of INPUT that returns message text in chunks of at most
+     *  CHUNK characters. */
+    MessageReader(ReadableByteChannel input, int chunk) {
+        this(input, null, 0, chunk);
+    }
+
+    /** A reader of INPUT, which is read into a buffer if MAPPED is null,
+     *  and otherwise is MAPPED, which is mapped into memory WINDOW bytes
+     *  at a time.  Returns message text in chunks of at most CHUNK
+     *  characters. */
+    private MessageReader(ReadableByteChannel input, FileChannel mapped,
+                          int window, int chunk) {
+        _input = input;
+        _mapped = mapped;
+        _window = window;
+        if (mapped == null) {
+            _buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            _buffer.flip();
+        } else {
+            _buffer = ByteBuffer.allocate(0);
+        }
+        _text = new byte[chunk];
+        _line = new byte[INITIAL_LINE];
+    }
+
+    /** Return a reader of the file INPUT, which maps it into memory
+     *  MAP_WINDOW bytes at a time, and returns message text in chunks of
+     *  at most CHUNK characters. */
+    static MessageReader mapped(FileChannel input, int chunk) {
+        return mapped(input, chunk, MAP_WINDOW);
+    }
+
+    /** Return a reader of the file INPUT, which maps it into memory
+     *  WINDOW bytes at a time, and returns message text in chunks of at
+     *  most CHUNK characters. */
+    static MessageReader mapped(FileChannel input, int chunk, int window) {
+        if (window <= 0) {
+            throw error("map window must be positive");
+        }
+        return new MessageReader(input, input, window, chunk);
+    }
+
+    /** Return true iff input in ALPHA can be read by a MessageReader. */
+    static boolean handles(Alphabet alpha) {
+        return alpha.maxCodePoint() < ASCII_LIMIT;
+    }
+
+    /** Read the next item of input and return its kind: SETTINGS, TEXT,
+     *  END_OF_LINE, BLANK, or END_OF_INPUT. */
+    int next() {
+        _textLength = 0;
+        if (_inLine) {
+            return continueLine();
+        }
+        int b = read();
+        if (b < 0) {
+            return END_OF_INPUT;
+        }
+        if (b == '*') {
+            int c = peek();
+            if (c >= 0 && !isLineEnd(c)) {
+                return readSettings();
+            }
+        }
+        _emptyLine = isLineEnd(b);
+        _sawStar = false;
+        _inLine = true;
+        _unread = b;
+        return continueLine();
+    }
+
+    /** Return the settings line read by the last call to next(), if it
+     *  returned SETTINGS. */
+    String settings() {
+        return _settings;
+    }
+
+    /** Return the buffer holding the message characters read by the last
+     *  call to next(), if it returned TEXT.  They are in positions 0 ..
+     *  textLength()-1, and may be modified until the next call to
+     *  next(). */
+    byte[] text() {
+        return _text;
+    }
+
+    /** Return the number of characters in text(). */
+    int textLength() {
+        return _textLength;
+    }
+
+    /** Return true iff the last BLANK line had no characters at all. */
+    boolean emptyLine() {
+        return _emptyLine;
+    }
+
+    /** Continue reading the current message line until text() is full or
+     *  the line ends, and return TEXT, END_OF_LINE or BLANK. */
+    private int continueLine() {
+        if (_lineEnded) {
+            _lineEnded = false;
+            return endLine(END_OF_LINE);
+        }
+        while (_textLength < _text.length) {
+            int b = _unread >= 0 ? _unread : read();
+            _unread = -1;
+            if (b < 0 || isLineEnd(b)) {
+                if (b == '\r') {
+                    _skipNewline = true;
+                }
+                if (_textLength > 0) {
+                    _lineEnded = true;
+                    return TEXT;
+                }
+                return _lineHasText ? endLine(END_OF_LINE) : endLine(BLANK);
+            }
+            if (isBlank(b)) {
+                continue;
+            }
+            if (b == '*') {
+                if (_lineHasText) {
+                    throw error("contains char not in _alpha");
+                }
+                _sawStar = true;
+                continue;
+            }
+            if (_sawStar) {
+                throw error("contains char not in _alpha");
+            }
+            _lineHasText = true;
+            _text[_textLength] = (byte) b;
+            _textLength += 1;
+        }
+        return TEXT;
+    }
+
+    /** Finish the current line and return KIND. */
+    private int endLine(int kind) {
+        _inLine = false;
+        _lineHasText = false;
+        _sawStar = false;
+        return kind;
+    }
+
+    /** Read the rest of a settings line whose leading '*' has been read,
+     *  and return SETTINGS. */
+    private int readSettings() {
+        int len = 0;
+        _line[len] = '*';
+        len += 1;
+        while (true) {
+            int b = read();
+            if (b < 0 || isLineEnd(b)) {
+                if (b == '\r') {
+                    _skipNewline = true;
+                }
+                break;
+            }
+            if (len == _line.length) {
+                _line = Arrays.copyOf(_line, 2 * len);
+            }
+            _line[len] = (byte) b;
+            len += 1;
+        }
+        _settings = new String(_line, 0, len, Charset.defaultCharset());
+        return SETTINGS;
+    }
+
+    /** Return the next byte of input, or -1 at the end of input, skipping
+     *  a "\n" that completes a "\r\n" line end. */
+    private int read() {
+        int b = peek();
+        if (b >= 0) {
+            _buffer.get();
+        }
+        if (b == '\n' && _skipNewline) {
+            _skipNewline = false;
+            return read();
+        }
+        _skipNewline = false;
+        return b;
+    }
+
+    /** Return the next byte of input without consuming it, or -1 at the
+     *  end of input. */
+    private int peek() {
+        try {
+            while (!_buffer.hasRemaining()) {
+                if (_mapped != null) {
+                    if (!mapNext()) {
+                        return -1;
+                    }
+                    continue;
+                }
+                _buffer.clear();
+                int n = _input.read(_buffer);
+                _buffer.flip();
+                if (n < 0) {
+                    return -1;
+                }
+            }
+            return _buffer.get(_buffer.position()) & BYTE_MASK;
+        } catch (IOException excp) {
+            throw error("error reading input: %s", excp.getMessage());
+        }
+    }
+
+    /** Map the window of _mapped following the current one into _buffer,
+     *  returning false if there is none. */
+    private boolean mapNext() throws IOException {
+        _mapPosition += _buffer.limit();
+        long size = _mapped.size();
+        if (_mapPosition >= size) {
+            return false;
+        }
+        long len = Math.min(_window, size - _mapPosition);
+        _buffer = _mapped.map(FileChannel.MapMode.READ_ONLY, _mapPosition,
+                              len);
+        return true;
+    }
+
+    /** Return true iff B ends a line. */
+    private static boolean isLineEnd(int b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /** Return true iff B is whitespace other than a line end. */
+    private static boolean isBlank(int b) {
+        return b == ' ' || b == '\t' || b == VT || b == '\f';
+    }
+
+    /** Characters below this are ASCII. */
+    private static final int ASCII_LIMIT = 0x80;
+    /** The vertical tab character. */
+    private static final int VT = 0x0b;
+    /** Initial capacity of the settings line buffer. */
+    private static final int INITIAL_LINE = 256;
+
+    /** Source of input. */
+    private final ReadableByteChannel _input;
+    /** The file being mapped, or null if _input is read into a
+     *  buffer. */
+    private final FileChannel _mapped;
+    /** Number of bytes of _mapped mapped at a time. */
+    private final int _window;
+    /** Position in _mapped of the start of _buffer. */
+    private long _mapPosition;
+    /** Input not yet consumed, ready for reading. */
+    private ByteBuffer _buffer;
+    /** Message characters of the current chunk. */
+    private final byte[] _text;
+    /** Number of characters in _text. */
+    private int _textLength;
+    /** Buffer for settings lines. */
+    private byte[] _line;
+    /** The last settings line read. */
+    private String _settings;
+    /** A byte read but not yet processed, or -1. */
+    private int _unread = -1;
+    /** True iff the next byte should be skipped if it is "\n". */
+    private boolean _skipNewline;
+    /** True iff a message line has been started but not finished. */
+    private boolean _inLine;
+    /** True iff the current message line has ended, but END_OF_LINE has
+     *  not yet been returned for it. */
+    private boolean _lineEnded;
+    /** True iff the current line has message characters. */
+    private boolean _lineHasText;
+    /** True iff the current line has a '*' before any message text. */
+    private boolean _sawStar;
+    /** True iff the current or last line had no characters at all. */
+    private boolean _emptyLine;
+}
@@ -0,0 +1,96 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the MessageReader class.
+ *  @author annetta
+ */
+public class MessageReaderTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    private static final String INPUT =
+        "* B Beta III IV I AXLE (HQ) (EX)\r\n"
+        + "FROM HIS SHOULDER\r\n"
+        + "\n"
+        + "   \t\r"
+        + "HIAWATHA TOOK THE CAMERA\n"
+        + "* B Beta III IV I AXLE\n"
+        + "OF ROSEWOOD";
+
+    /** Return a transcript of the items read by IN, with message text in
+     *  brackets. */
+    private static String transcript(MessageReader in) {
+        StringBuilder result = new StringBuilder();
+        int kind;
+        while ((kind = in.next()) != MessageReader.END_OF_INPUT) {
+            switch (kind) {
+            case MessageReader.SETTINGS:
+                result.append(in.settings()).append('|');
+                break;
+            case MessageReader.TEXT:
+                result.append('[').append(new String(in.text(), 0,
+                        in.textLength(), StandardCharsets.US_ASCII))
+                    .append(']');
+                break;
+            case MessageReader.END_OF_LINE:
+                result.append('|');
+                break;
+            default:
+                result.append(in.emptyLine() ? "<empty>|" : "<blank>|");
+                break;
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return a reader of INPUT through a buffer, in chunks of 8. */
+    private static MessageReader buffered() {
+        byte[] bytes = INPUT.getBytes(StandardCharsets.US_ASCII);
+        return new MessageReader(Channels.newChannel(
+            new ByteArrayInputStream(bytes)), 8);
+    }
+
+    @Test
+    public void checkBuffered() {
+        MessageReader in = buffered();
+        assertEquals("* B Beta III IV I AXLE (HQ) (EX)|"
+                     + "[FROMHISS][HOULDER]|<empty>|<blank>|"
+                     + "[HIAWATHA][TOOKTHEC][AMERA]|"
+                     + "* B Beta III IV I AXLE|[OFROSEWO][OD]|",
+                     transcript(in));
+    }
+
+    @Test
+    public void checkMappedWindows() throws IOException {
+        String expected = transcript(buffered());
+        Path file = Files.createTempFile("enigma", ".in");
+        try {
+            Files.write(file, INPUT.getBytes(StandardCharsets.US_ASCII));
+            for (int window : new int[] { 1, 2, 3, 7, 34, 35, 1 << 20 }) {
+                try (FileChannel channel = FileChannel.open(file)) {
+                    assertEquals("window " + window, expected,
+                                 transcript(MessageReader.mapped(channel, 8,
+                                                                 window)));
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
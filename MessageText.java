@@ -0,0 +1,110 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.Machine.BYTE_MASK;
+
+/** A stretch of input read by a MessageReader and held for converting
+ *  and printing later: message text with whitespace removed, and the
+ *  events (line ends and settings lines) that occur in it, each at a
+ *  position in the text.  The text between two events, or before the
+ *  first or after the last, is a span; span K ends at event K.  The
+ *  arrays grow as needed, starting from the capacities given.
+ *  @author annetta
+ */
+class MessageText {
+
+    /** An empty stretch with room for CAPACITY characters and EVENTS
+     *  events. */
+    MessageText(int capacity, int events) {
+        text = new byte[capacity];
+        kinds = new int[events];
+        ends = new int[events];
+        settings = new String[events];
+    }
+
+    /** Append the first N characters of CHARS to my text. */
+    void append(byte[] chars, int n) {
+        if (length + n > text.length) {
+            text = Arrays.copyOf(text,
+                                 Math.max(2 * text.length, length + n));
+        }
+        System.arraycopy(chars, 0, text, length, n);
+        length += n;
+    }
+
+    /** Record an event of kind KIND (a MessageReader.next() result other
+     *  than TEXT and END_OF_INPUT) with settings line SETTING, at the
+     *  current end of my text. */
+    void add(int kind, String setting) {
+        if (events == kinds.length) {
+            int n = Math.max(1, 2 * events);
+            kinds = Arrays.copyOf(kinds, n);
+            ends = Arrays.copyOf(ends, n);
+            settings = Arrays.copyOf(settings, n);
+        }
+        kinds[events] = kind;
+        ends[events] = length;
+        settings[events] = setting;
+        events += 1;
+    }
+
+    /** Return the position in my text at which span K starts. */
+    int spanStart(int k) {
+        return k == 0 ? 0 : ends[k - 1];
+    }
+
+    /** Return the index of the first span containing a character that is
+     *  not in ALPHA, or -1 if there is none. */
+    int badSpan(Alphabet alpha) {
+        int k = 0;
+        for (int i = 0; i < length; i += 1) {
+            while (k < events && ends[k] <= i) {
+                k += 1;
+            }
+            if (!alpha.contains(text[i] & BYTE_MASK)) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /** Discard everything from event K and text position POS on. */
+    void truncate(int k, int pos) {
+        Arrays.fill(settings, k, events, null);
+        events = k;
+        length = pos;
+    }
+
+    /** Empty me for reuse. */
+    void clear() {
+        truncate(0, 0);
+    }
+
+    /** Print my text on OUTPUT in groups of five, ending a line at each
+     *  event other than a settings line. */
+    void print(MessageWriter output) {
+        int pos = 0;
+        for (int k = 0; k < events; k += 1) {
+            output.print(text, pos, ends[k] - pos);
+            pos = ends[k];
+            if (kinds[k] != MessageReader.SETTINGS) {
+                output.println();
+            }
+        }
+        output.print(text, pos, length - pos);
+    }
+
+    /** Message text. */
+    byte[] text;
+    /** Number of characters in text. */
+    int length;
+    /** Kinds of the events, as returned by MessageReader.next(). */
+    int[] kinds;
+    /** Positions in text at which the events occur. */
+    int[] ends;
+    /** The settings lines of SETTINGS events. */
+    String[] settings;
+    /** Number of events. */
+    int events;
+}
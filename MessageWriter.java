@@ -0,0 +1,146 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import static enigma.EnigmaException.*;
+
+/** Writes converted messages in groups of five characters separated by
+ *  blanks (the last group of a line may have fewer), collecting the
+ *  output in a buffer that is written to the underlying stream when it
+ *  fills, at the end of each line if requested, and when closed.
+ *  Characters are encoded with the default charset, as for PrintStream.
+ *  @author annetta
+ */
+class MessageWriter {
+
+    /** Size of the output buffer. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** A writer to OUTPUT that flushes at the end of each line iff
+     *  FLUSHLINES. */
+    MessageWriter(OutputStream output, boolean flushLines) {
+        _output = output;
+        _flushLines = flushLines;
+        _buffer = new byte[BUFFER_SIZE];
+        _charset = Charset.defaultCharset();
+        _lineEnd = System.lineSeparator().getBytes(_charset);
+    }
+
+    /** Print the LEN ASCII characters TEXT[OFF .. OFF+LEN-1] as the
+     *  continuation of the current line, in groups of five. */
+    void print(byte[] text, int off, int len) {
+        for (int i = off; i < off + len; i += 1) {
+            if (_size + 2 > _buffer.length) {
+                drain();
+            }
+            if (_column > 0 && _column % 5 == 0) {
+                _buffer[_size] = ' ';
+                _size += 1;
+            }
+            _buffer[_size] = text[i];
+            _size += 1;
+            _column += 1;
+        }
+    }
+
+    /** Print MSG as the continuation of the current line, in groups of
+     *  five characters. */
+    void print(String msg) {
+        StringBuilder grouped = new StringBuilder(msg.length() + 16);
+        int k = 0;
+        while (k < msg.length()) {
+            int c = msg.codePointAt(k);
+            k += Character.charCount(c);
+            if (_column > 0 && _column % 5 == 0) {
+                grouped.append(' ');
+            }
+            grouped.appendCodePoint(c);
+            _column += 1;
+        }
+        put(grouped.toString().getBytes(_charset));
+    }
+
+    /** Print TEXT, which is already in groups of five, as a complete
+     *  line. */
+    void printGrouped(String text) {
+        put(text.getBytes(_charset));
+        println();
+    }
+
+    /** End the current line. */
+    void println() {
+        put(_lineEnd);
+        _column = 0;
+        if (_flushLines) {
+            flush();
+        }
+    }
+
+    /** Write all buffered output to the underlying stream and flush it. */
+    void flush() {
+        drain();
+        try {
+            _output.flush();
+        } catch (IOException excp) {
+            throw error("error writing output: %s", excp.getMessage());
+        }
+    }
+
+    /** Flush all output and close the underlying stream. */
+    void close() {
+        flush();
+        try {
+            _output.close();
+        } catch (IOException excp) {
+            throw error("error writing output: %s", excp.getMessage());
+        }
+    }
+
+    /** Append BYTES to the buffer. */
+    private void put(byte[] bytes) {
+        if (_size + bytes.length > _buffer.length) {
+            drain();
+        }
+        if (bytes.length > _buffer.length) {
+            write(bytes, bytes.length);
+        } else {
+            System.arraycopy(bytes, 0, _buffer, _size, bytes.length);
+            _size += bytes.length;
+        }
+    }
+
+    /** Write the contents of the buffer to the underlying stream. */
+    private void drain() {
+        write(_buffer, _size);
+        _size = 0;
+    }
+
+    /** Write the first LEN bytes of BYTES to the underlying stream. */
+    private void write(byte[] bytes, int len) {
+        if (len == 0) {
+            return;
+        }
+        try {
+            _output.write(bytes, 0, len);
+        } catch (IOException excp) {
+            throw error("error writing output: %s", excp.getMessage());
+        }
+    }
+
+    /** Destination of output. */
+    private final OutputStream _output;
+    /** True iff output is flushed at the end of each line. */
+    private final boolean _flushLines;
+    /** Output not yet written to _output. */
+    private final byte[] _buffer;
+    /** Number of bytes in _buffer. */
+    private int _size;
+    /** Number of characters printed on the current line. */
+    private int _column;
+    /** Encoding of characters. */
+    private final Charset _charset;
+    /** Encoded line separator. */
+    private final byte[] _lineEnd;
+}
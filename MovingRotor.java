@@ -13,9 +13,17 @@ class MovingRotor extends Rotor {
      *  alphabet).
      */
     MovingRotor(String name, Permutation perm, String notches) {
-        super(name, perm);
-        super.setNotches(notches);
-        _notches = notches;
+        super(new RotorWiring(name, perm, notches));
+    }
+
+    /** A moving rotor with wiring WIRING, in its 0 setting. */
+    private MovingRotor(RotorWiring wiring) {
+        super(wiring);
+    }
+
+    @Override
+    Rotor copy() {
+        return copyState(new MovingRotor(wiring()));
     }
 
     @Override
@@ -30,25 +38,17 @@ class MovingRotor extends Rotor {
 
     @Override
     boolean atNotch() {
-        if (_notches.equals("")) {
-            return false;
-        } else {
-            int i = _permutation.wrap(_setting);
-            char s = _permutation.alphabet().toChar(i);
-            return _notches.contains(Character.toString(s));
-        }
+        int i = _permutation.wrap(_setting);
+        return (notchMask()[i >>> 6] & (1L << i)) != 0;
     }
 
     @Override
     String notches() {
-        return _notches;
+        return wiring().notches();
     }
 
     @Override
     public String toString() {
         return "MovingRotor " + _name;
     }
-
-    /** My NOTHCES. */
-    private String _notches;
 }
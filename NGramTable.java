@@ -0,0 +1,130 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static enigma.EnigmaException.*;
+
+/** The log probabilities of the sequences of N characters (n-grams) of
+ *  a language, for scoring trial decryptions.  They are kept in a flat
+ *  array indexed by the alphabet indices of an n-gram's characters,
+ *  packed as the digits of a number in base alphabet size.  A table is
+ *  never modified once built, so may be shared among threads.
+ *  @author annetta
+ */
+final class NGramTable {
+
+    /** Largest number of entries in a table. */
+    static final int MAX_ENTRIES = 1 << 26;
+
+    /** A table over ALPHA for the n-grams whose number of occurrences in
+     *  a sample of the language are given by COUNTS.  The keys of COUNTS
+     *  must all have the same length.  N-grams not in COUNTS are scored
+     *  as if they had occurred a hundredth of a time. */
+    NGramTable(Alphabet alpha, Map<String, Long> counts) {
+        if (counts.isEmpty()) {
+            throw error("no n-grams given");
+        }
+        _alphabet = alpha;
+        int n = -1;
+        long total = 0;
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            String gram = entry.getKey();
+            int len = gram.codePointCount(0, gram.length());
+            if (n == -1) {
+                n = len;
+            } else if (len != n) {
+                throw error("n-grams of different lengths");
+            }
+            if (entry.getValue() <= 0) {
+                throw error("n-gram count must be positive");
+            }
+            total += entry.getValue();
+        }
+        long entries = 1;
+        for (int k = 0; k < n; k += 1) {
+            entries *= alpha.size();
+            if (entries > MAX_ENTRIES) {
+                throw error("n-gram table too large");
+            }
+        }
+        _length = n;
+        _scores = new float[(int) entries];
+        Arrays.fill(_scores, (float) Math.log10(0.01 / total));
+        int[] gram = new int[n];
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            int[] chars = entry.getKey().codePoints().toArray();
+            for (int k = 0; k < n; k += 1) {
+                if (!alpha.contains(chars[k])) {
+                    throw error("n-gram %s not in alphabet", entry.getKey());
+                }
+                gram[k] = alpha.toInt(chars[k]);
+            }
+            _scores[index(gram, 0)] =
+                (float) Math.log10((double) entry.getValue() / total);
+        }
+    }
+
+    /** Return the table over ALPHA read from the file named NAME, each
+     *  of whose nonblank lines holds an n-gram and its count, separated
+     *  by whitespace. */
+    static NGramTable load(String name, Alphabet alpha) {
+        TreeMap<String, Long> counts = new TreeMap<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(name))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length == 1 && fields[0].isEmpty()) {
+                    continue;
+                }
+                if (fields.length != 2 || !fields[1].matches("\\d+")) {
+                    throw error("bad n-gram line: %s", line);
+                }
+                counts.merge(fields[0], Long.parseLong(fields[1]),
+                             Long::sum);
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+        return new NGramTable(alpha, counts);
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of characters in my n-grams. */
+    int length() {
+        return _length;
+    }
+
+    /** Return the index in my table of the n-gram whose characters have
+     *  alphabet indices TEXT[START .. START + length() - 1]. */
+    int index(int[] text, int start) {
+        int size = _alphabet.size();
+        int index = 0;
+        for (int k = start; k < start + _length; k += 1) {
+            index = index * size + text[k];
+        }
+        return index;
+    }
+
+    /** Return the log (base 10) probability of the n-gram whose
+     *  characters have alphabet indices TEXT[START .. START + length() -
+     *  1]. */
+    float score(int[] text, int start) {
+        return _scores[index(text, start)];
+    }
+
+    /** The alphabet of my n-grams. */
+    private final Alphabet _alphabet;
+    /** The number of characters in my n-grams. */
+    private final int _length;
+    /** The log probability of each n-gram, by index. */
+    private final float[] _scores;
+}
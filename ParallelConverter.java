@@ -0,0 +1,168 @@
+package enigma;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Converts long messages by splitting them into chunks that are
+ *  encrypted concurrently, each by its own copy of the machine advanced
+ *  to the start of its chunk with Machine.skip.
+ *  @author annetta
+ */
+class ParallelConverter {
+
+    /** Messages shorter than this are not worth splitting. */
+    static final int MIN_CHUNK = 1 << 16;
+
+    /** A converter that uses PARALLELISM worker threads. */
+    ParallelConverter(int parallelism) {
+        _pool = new ForkJoinPool(parallelism);
+    }
+
+    /** Return true iff MSG is long enough to be converted in parallel by
+     *  MACH.  Alphabets with supplementary characters are converted
+     *  serially. */
+    static boolean worthwhile(Machine mach, String msg) {
+        Alphabet alpha = mach.alphabet();
+        return msg.length() >= 2 * MIN_CHUNK
+            && alpha.getChars().length() == alpha.size();
+    }
+
+    /** Return the conversion of MSG by MACH, in groups of five characters
+     *  separated by blanks (the last group may have fewer), as
+     *  Main.printMessageLine prints it.  Leaves MACH as if it had
+     *  converted MSG one character at a time. */
+    String convertGrouped(Machine mach, String msg) {
+        int len = msg.length();
+        if (len == 0) {
+            return "";
+        }
+        char[] out = new char[len + (len - 1) / 5];
+        int chunk = Math.max(MIN_CHUNK,
+                             len / (4 * _pool.getParallelism()));
+        mach.buildPeriodTable();
+        _pool.invoke(new Chunk(new Machine(mach), msg, out, 0, len, chunk));
+        mach.skip(len);
+        return new String(out);
+    }
+
+    /** Convert the LEN characters BUF[OFF .. OFF+LEN-1] in place with
+     *  MACH, as for Machine.convert(byte[], byte[], int, int).  Leaves
+     *  MACH as if it had converted them one character at a time. */
+    void convert(Machine mach, byte[] buf, int off, int len) {
+        if (len < 2 * MIN_CHUNK) {
+            mach.convert(buf, buf, off, len);
+            return;
+        }
+        int chunk = Math.max(MIN_CHUNK,
+                             len / (4 * _pool.getParallelism()));
+        mach.buildPeriodTable();
+        _pool.invoke(new ByteChunk(new Machine(mach), buf, off, 0, len,
+                                   chunk));
+        mach.skip(len);
+    }
+
+    /** Release my worker threads. */
+    void shutdown() {
+        _pool.shutdown();
+    }
+
+    /** Conversion of the characters of a message from START to END. */
+    private static class Chunk extends RecursiveAction {
+
+        /** Converts characters START .. END-1 of MSG into OUT, using a
+         *  copy of MACH, whose settings are those at the start of MSG,
+         *  and splitting into pieces of at most CHUNK characters. */
+        Chunk(Machine mach, String msg, char[] out, int start, int end,
+              int chunk) {
+            _mach = mach;
+            _msg = msg;
+            _out = out;
+            _start = start;
+            _end = end;
+            _chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (_end - _start > _chunk) {
+                int mid = _start + (_end - _start) / 2;
+                invokeAll(new Chunk(_mach, _msg, _out, _start, mid, _chunk),
+                          new Chunk(_mach, _msg, _out, mid, _end, _chunk));
+                return;
+            }
+            Machine mach = new Machine(_mach);
+            mach.skip(_start);
+            Alphabet alpha = mach.alphabet();
+            int len = _msg.length();
+            for (int i = _start; i < _end; i += 1) {
+                int c = mach.convert(alpha.toInt(_msg.charAt(i)));
+                int j = i + i / 5;
+                _out[j] = alpha.toChar(c);
+                if ((i + 1) % 5 == 0 && i + 1 < len) {
+                    _out[j + 1] = ' ';
+                }
+            }
+        }
+
+        /** Machine at the start of the message, which is not modified. */
+        private final Machine _mach;
+        /** The message. */
+        private final String _msg;
+        /** The grouped conversion of the message. */
+        private final char[] _out;
+        /** Index of my first character. */
+        private final int _start;
+        /** Index just past my last character. */
+        private final int _end;
+        /** Largest piece converted without splitting. */
+        private final int _chunk;
+    }
+
+    /** In-place conversion of bytes START .. END-1 of a buffer. */
+    private static class ByteChunk extends RecursiveAction {
+
+        /** Converts bytes OFF+START .. OFF+END-1 of BUF in place, using a
+         *  copy of MACH, whose settings are those at BUF[OFF], and
+         *  splitting into pieces of at most CHUNK characters. */
+        ByteChunk(Machine mach, byte[] buf, int off, int start, int end,
+                  int chunk) {
+            _mach = mach;
+            _buf = buf;
+            _off = off;
+            _start = start;
+            _end = end;
+            _chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (_end - _start > _chunk) {
+                int mid = _start + (_end - _start) / 2;
+                invokeAll(new ByteChunk(_mach, _buf, _off, _start, mid,
+                                        _chunk),
+                          new ByteChunk(_mach, _buf, _off, mid, _end,
+                                        _chunk));
+                return;
+            }
+            Machine mach = new Machine(_mach);
+            mach.skip(_start);
+            mach.convert(_buf, _buf, _off + _start, _end - _start);
+        }
+
+        /** Machine at the start of the buffer, which is not modified. */
+        private final Machine _mach;
+        /** The buffer. */
+        private final byte[] _buf;
+        /** Index in _buf of the first character of the whole range. */
+        private final int _off;
+        /** Index of my first character, relative to _off. */
+        private final int _start;
+        /** Index just past my last character, relative to _off. */
+        private final int _end;
+        /** Largest piece converted without splitting. */
+        private final int _chunk;
+    }
+
+    /** Pool that runs the chunks. */
+    private final ForkJoinPool _pool;
+}
@@ -0,0 +1,151 @@
+package enigma;
+
+/** A table of the conversions done by the rotors of a Machine at every
+ *  combination of settings of its moving rotors, together with the
+ *  setting that follows each one.  Encrypting a character with a period
+ *  table takes one lookup for the next state and one for the conversion.
+ *  A table holds for fixed rotors, ring settings and settings of the
+ *  non-moving rotors, and does not include the plugboard.
+ *  @author annetta
+ */
+class PeriodTable {
+
+    /** A table for the rotors currently in MACH, whose ring settings
+     *  are RINGS and whose non-moving rotors have the settings in
+     *  POSITIONS (indexed by slot). */
+    PeriodTable(Machine mach, int[] positions, int[] rings) {
+        _size = mach.alphabet().size();
+        int numRotors = mach.numRotors();
+        int moving = 0;
+        for (int k = 0; k < numRotors; k += 1) {
+            if (mach.rotates(k)) {
+                moving += 1;
+            }
+        }
+        _slots = new int[moving];
+        for (int k = numRotors - 1, j = 0; k >= 0; k -= 1) {
+            if (mach.rotates(k)) {
+                _slots[j] = k;
+                j += 1;
+            }
+        }
+        _fixed = positions.clone();
+        for (int slot : _slots) {
+            _fixed[slot] = -1;
+        }
+        int numStates = (int) states(_size, moving);
+        _table = new byte[numStates * _size];
+        _next = new int[numStates];
+
+        int[] current = positions.clone();
+        for (int slot : _slots) {
+            current[slot] = 0;
+        }
+        int[] after = new int[numRotors];
+        MachineCore core = new MachineCore(mach, current, rings);
+        for (int state = 0; state < numStates; state += 1) {
+            for (int c = 0; c < _size; c += 1) {
+                _table[state * _size + c] = (byte) core.throughRotors(c);
+            }
+            System.arraycopy(current, 0, after, 0, numRotors);
+            mach.step(after);
+            _next[state] = stateOf(after);
+            int j;
+            for (j = 0; j < moving; j += 1) {
+                current[_slots[j]] += 1;
+                if (current[_slots[j]] < _size) {
+                    break;
+                }
+                current[_slots[j]] = 0;
+            }
+            core.stepped(j < moving ? _slots[j] : 0);
+        }
+    }
+
+    /** Return the number of bytes a period table for the rotors currently
+     *  in MACH would use, or Long.MAX_VALUE if MACH cannot have one. */
+    static long estimate(Machine mach) {
+        int size = mach.alphabet().size();
+        int moving = 0;
+        for (int k = 0; k < mach.numRotors(); k += 1) {
+            if (mach.rotates(k)) {
+                moving += 1;
+            }
+        }
+        long states = states(size, moving);
+        if (size > Rotor.MAX_SHIFTED_SIZE || states < 0
+            || states * size > Integer.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return states * (size + 4);
+    }
+
+    /** Return SIZE ** MOVING, or -1 if that exceeds Integer.MAX_VALUE. */
+    private static long states(int size, int moving) {
+        long result = 1;
+        for (int i = 0; i < moving; i += 1) {
+            result *= size;
+            if (result > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return result;
+    }
+
+    /** Return true iff this table applies when the rotor settings are
+     *  POSITIONS, that is, iff the non-moving rotors are set as they were
+     *  when it was built. */
+    boolean fits(int[] positions) {
+        for (int k = 0; k < positions.length; k += 1) {
+            if (_fixed[k] >= 0 && positions[k] != _fixed[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the state index of the rotor settings POSITIONS. */
+    int stateOf(int[] positions) {
+        int state = 0;
+        for (int j = _slots.length - 1; j >= 0; j -= 1) {
+            state = state * _size + positions[_slots[j]];
+        }
+        return state;
+    }
+
+    /** Set the settings of the moving rotors in POSITIONS to those of
+     *  STATE. */
+    void decode(int state, int[] positions) {
+        for (int slot : _slots) {
+            positions[slot] = state % _size;
+            state /= _size;
+        }
+    }
+
+    /** Return the state that follows STATE after one keypress. */
+    int next(int state) {
+        return _next[state];
+    }
+
+    /** Return the conversion of C by the rotors in STATE. */
+    int convert(int state, int c) {
+        return _table[state * _size + c] & 0xff;
+    }
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Slots of the moving rotors, from right to left. */
+    private final int[] _slots;
+
+    /** Slot settings of the non-moving rotors when this table was built,
+     *  and -1 for the moving rotors. */
+    private final int[] _fixed;
+
+    /** Conversion of each character in each state, at
+     *  state * _size + character. */
+    private final byte[] _table;
+
+    /** State that follows each state. */
+    private final int[] _next;
+}
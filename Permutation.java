@@ -1,9 +1,13 @@
 package enigma;
 
+import java.util.Arrays;
+
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
- *  to the characters of an alphabet.
+ *  to the characters of an alphabet.  The cycles are compiled into forward
+ *  and inverse lookup tables when they are added, so that permute and
+ *  invert are single array accesses.
  *  @author annetta
  */
 class Permutation {
@@ -15,96 +19,152 @@ class Permutation {
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        _cycles = cycles.trim();
-//        _map = new HashMap<>();
-//        for (int i = 0; i < _cycles.length() - 1; i++) {
-//            if (_cycles.charAt(i) == '('
-//                    && _cycles.charAt(i + 2) == ')') {
-//                _map.put(_cycles.charAt(i + 1), _cycles.charAt(i + 1));
-//            } else if (_cycles.charAt(i + 1) == ')') {
-//                int k = i;
-//                while (_cycles.charAt(k) != '(') {
-//                    k--;
-//                }
-//                _map.put(_cycles.charAt(i), _cycles.charAt(k + 1));
-//            } else if (_cycles.charAt(i) == '(') {
-//                _map.put(_cycles.charAt(i + 1), _cycles.charAt(i + 2));
-//            } else if (_cycles.charAt(i) != '(' && _cycles.charAt(i) != ')'){
-//                _map.put(_cycles.charAt(i), _cycles.charAt(i + 1));
-//            }
-//        }
+        int n = alphabet.size();
+        _forward = new int[n];
+        _inverse = new int[n];
+        _mapped = new boolean[n];
+        for (int i = 0; i < n; i += 1) {
+            _forward[i] = i;
+            _inverse[i] = i;
+        }
+        addCycle(cycles.trim());
+    }
+
+    /** The permutation of ALPHABET that maps each index K to FORWARD[K],
+     *  as if every index belonged to a cycle.  FORWARD is copied. */
+    Permutation(int[] forward, Alphabet alphabet) {
+        _alphabet = alphabet;
+        int n = alphabet.size();
+        if (forward.length != n) {
+            throw error("permutation table has the wrong size");
+        }
+        _forward = forward.clone();
+        _inverse = new int[n];
+        _mapped = new boolean[n];
+        Arrays.fill(_inverse, -1);
+        _derangement = true;
+        for (int i = 0; i < n; i += 1) {
+            int p = _forward[i];
+            if (p < 0 || p >= n || _inverse[p] >= 0) {
+                throw error("permutation table is not a permutation");
+            }
+            _inverse[p] = i;
+            _mapped[i] = true;
+            if (p == i) {
+                _derangement = false;
+            }
+        }
+    }
+
+    /** A copy of PERM, to which further cycles may be added independently
+     *  of PERM. */
+    Permutation(Permutation perm) {
+        _alphabet = perm._alphabet;
+        _forward = perm._forward.clone();
+        _inverse = perm._inverse.clone();
+        _mapped = perm._mapped.clone();
+        _derangement = perm._derangement;
+    }
+
+    /** Make this permutation the same as PERM, which must have the same
+     *  size, without allocating.  The tables returned by forwardTable()
+     *  are updated in place. */
+    void copyFrom(Permutation perm) {
+        if (perm.size() != size()) {
+            throw error("permutations of different sizes");
+        }
+        System.arraycopy(perm._forward, 0, _forward, 0, size());
+        System.arraycopy(perm._inverse, 0, _inverse, 0, size());
+        System.arraycopy(perm._mapped, 0, _mapped, 0, size());
+        _derangement = perm._derangement;
+    }
+
+    /** Return true iff PERM maps every index as I do, and would treat
+     *  further cycles as I would. */
+    boolean sameAs(Permutation perm) {
+        return perm == this
+            || (Arrays.equals(perm._forward, _forward)
+                && Arrays.equals(perm._mapped, _mapped));
     }
 
     /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
+     *  c0c1...cm.  CYCLE may also be one or more parenthesized cycles.  A
+     *  character that already belongs to an earlier cycle keeps its
+     *  earlier mapping. */
     void addCycle(String cycle) {
-        _cycles += cycle;
-//        for (int i = 0; i < _cycles.length() - 1; i++) {
-//            if (_cycles.charAt(i) == '('
-//                    && _cycles.charAt(i + 2) == ')') {
-//                _map.put(_cycles.charAt(i + 1), _cycles.charAt(i + 1));
-//            } else if (_cycles.charAt(i + 1) == ')') {
-//                int k = i;
-//                while (_cycles.charAt(k) != '(') {
-//                    k--;
-//                }
-//                _map.put(_cycles.charAt(i), _cycles.charAt(k + 1));
-//            } else if (_cycles.charAt(i) == '(') {
-//                _map.put(_cycles.charAt(i + 1), _cycles.charAt(i + 2));
-//            } else if (_cycles.charAt(i) != '(' && _cycles.charAt(i) != ')'){
-//                _map.put(_cycles.charAt(i), _cycles.charAt(i + 1));
-//            }
-//        }
+        int[] members = new int[cycle.length()];
+        int len = 0;
+        boolean open = cycle.indexOf('(') < 0;
+        int pos = 0;
+        while (pos < cycle.length()) {
+            int ch = cycle.codePointAt(pos);
+            pos += Character.charCount(ch);
+            if (ch == '(') {
+                len = 0;
+                open = true;
+            } else if (ch == ')') {
+                link(members, len);
+                len = 0;
+                open = false;
+            } else if (!Character.isWhitespace(ch)) {
+                if (!open) {
+                    throw error("character %c outside of a cycle", ch);
+                }
+                members[len] = _alphabet.toInt(ch);
+                len += 1;
+            }
+        }
+        link(members, len);
+        _derangement = true;
+        for (int i = 0; i < size(); i += 1) {
+            if (_forward[i] == i) {
+                _derangement = false;
+                break;
+            }
+        }
+    }
+
+    /** Record the cycle formed by the first LEN entries of MEMBERS (alphabet
+     *  indices) in the lookup tables, skipping indices already mapped. */
+    private void link(int[] members, int len) {
+        for (int k = 0; k < len; k += 1) {
+            int c = members[k];
+            if (!_mapped[c]) {
+                _mapped[c] = true;
+                _forward[c] = members[k + 1 == len ? 0 : k + 1];
+                _inverse[c] = members[k == 0 ? len - 1 : k - 1];
+            }
+        }
     }
 
     /** Return the value of P modulo the size of this permutation. */
     final int wrap(int p) {
-        int r = p % size();
+        int n = _forward.length;
+        if (p >= 0 && p < n) {
+            return p;
+        }
+        int r = p % n;
         if (r < 0) {
-            r += size();
+            r += n;
         }
         return r;
     }
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        int in = wrap(p);
-        char inc = _alphabet.toChar(in);
-        int permInc = _cycles.indexOf(inc);
-        if (derangement() || permInc == -1) {
-            return wrap(in);
-        } else {
-            if (_cycles.charAt(permInc + 1) == ')') {
-                while (_cycles.charAt(permInc) != '(') {
-                    permInc--;
-                }
-            }
-            return wrap(_alphabet.toInt(_cycles.charAt(permInc + 1)));
-        }
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        int in = wrap(c);
-        char inc = _alphabet.toChar(in);
-        int permInc = _cycles.indexOf(inc);
-        if (derangement() || permInc == -1) {
-            return wrap(in);
-        } else {
-            if (_cycles.charAt(permInc - 1) == '(') {
-                while (_cycles.charAt(permInc) != ')') {
-                    permInc++;
-                }
-            }
-            return wrap(_alphabet.toInt(_cycles.charAt(permInc - 1)));
-        }
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -118,6 +178,12 @@ class Permutation {
         return _alphabet.toChar(invert(_alphabet.toInt(c)));
     }
 
+    /** Return the table whose K-th entry is permute(K).  The table is
+     *  updated in place by addCycle and must not be modified. */
+    int[] forwardTable() {
+        return _forward;
+    }
+
     /** Return the alphabet used to initialize this Permutation. */
     Alphabet alphabet() {
         return _alphabet;
@@ -126,37 +192,21 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        if (_cycles.equals("")) {
-            return false;
-        }
-        char[] chs = _alphabet.getChars().toCharArray();
-        for (char c : chs) {
-            for (int i = 0; i < _cycles.length(); i++) {
-                if (_cycles.charAt(i) == '('
-                    && _cycles.charAt(i + 2) == ')') {
-                    return false;
-                }
-                if (_cycles.charAt(i) == c) {
-                    return false;
-                }
-            }
-        }
-        return true;
-//        int cnt = 0;
-//        for (char c : chs) {
-//            for (Map. Entry<Character, Character> e: _map.entrySet()) {
-//                if (e.getKey () == c && e.getValue () != c) {
-//                    cnt ++;
-//                }
-//            }
-//        }
-//        return cnt > chs.length;
+        return _derangement;
     }
 
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** CYCLES of this permutation. */
-    private String _cycles;
-//    HashMap<Character, Character> _map;
+    /** Image of each alphabet index under this permutation. */
+    private final int[] _forward;
+
+    /** Image of each alphabet index under the inverse permutation. */
+    private final int[] _inverse;
+
+    /** True for each alphabet index that some cycle has already mapped. */
+    private final boolean[] _mapped;
+
+    /** True iff no index maps to itself. */
+    private boolean _derangement;
 }
@@ -94,4 +94,32 @@ public class PermutationTest {
         }
     }
 
+    @Test
+    public void checkDerangement() {
+        assertFalse(new Permutation("", UPPER).derangement());
+        assertTrue(new Permutation(NAVALA.get("B"), UPPER).derangement());
+        assertFalse(new Permutation(NAVALA.get("I"), UPPER).derangement());
+        perm = new Permutation("(AB)", new Alphabet("AB"));
+        assertTrue(perm.derangement());
+    }
+
+    @Test
+    public void checkAddCycle() {
+        perm = new Permutation("(HQ)", UPPER);
+        perm.addCycle("(EX) (IP)");
+        perm.addCycle("(HQ)");
+        String s1 = "ABCDXFGQPJKLMNOIHRSTUVWEYZ";
+        checkPerm("addCycle", UPPER_STRING, s1);
+    }
+
+    @Test
+    public void checkCopy() {
+        Permutation orig = new Permutation("(HQ)", UPPER);
+        perm = new Permutation(orig);
+        orig.addCycle("(EX)");
+        checkPerm("copy", UPPER_STRING, "ABCDEFGQIJKLMNOPHRSTUVWXYZ");
+        perm.addCycle("(IP)");
+        assertEquals('I', orig.permute('I'));
+    }
+
 }
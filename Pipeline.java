@@ -0,0 +1,227 @@
+package enigma;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+import static enigma.EnigmaException.*;
+
+/** Converts the messages from a MessageReader in three overlapping
+ *  stages: a reader thread that collects input into batches, the
+ *  calling thread, which applies settings lines and converts message
+ *  text, and a writer thread that prints the results.  The stages pass
+ *  a fixed set of reusable batches around bounded queues, so a stage
+ *  that falls behind stops the others rather than letting input pile
+ *  up, and output is in input order.
+ *  @author annetta
+ */
+class Pipeline {
+
+    /** Number of batches in circulation. */
+    static final int DEPTH = 4;
+
+    /** Largest number of lines in a batch. */
+    static final int MAX_EVENTS = 1 << 12;
+
+    /** A pipeline that reads messages from INPUT, converts them with
+     *  MACH (using PARALLEL for long stretches of text, if it is not
+     *  null), and prints them on OUTPUT.  Settings lines are applied to
+     *  MACH by SETUP. */
+    Pipeline(MessageReader input, MessageWriter output, Machine mach,
+             Consumer<String> setUp, ParallelConverter parallel) {
+        _input = input;
+        _output = output;
+        _mach = mach;
+        _setUp = setUp;
+        _parallel = parallel;
+        _free = new ArrayBlockingQueue<>(DEPTH);
+        _read = new ArrayBlockingQueue<>(DEPTH);
+        _converted = new ArrayBlockingQueue<>(DEPTH);
+        for (int i = 0; i < DEPTH; i += 1) {
+            _free.add(new Batch(input.text().length));
+        }
+    }
+
+    /** Convert and print all remaining input, returning when all output
+     *  has been handed to the writer.  Errors are thrown after all
+     *  output preceding them has been printed. */
+    void run() {
+        Thread reader = new Thread(this::readBatches, "enigma-reader");
+        Thread writer = new Thread(this::writeBatches, "enigma-writer");
+        reader.setDaemon(true);
+        reader.start();
+        writer.start();
+        RuntimeException failure = null;
+        try {
+            while (true) {
+                Batch batch = _read.take();
+                failure = convert(batch);
+                if (failure == null) {
+                    failure = batch.error;
+                }
+                boolean last = batch.last;
+                _converted.put(batch);
+                if (last) {
+                    break;
+                }
+            }
+        } catch (InterruptedException excp) {
+            failure = error("interrupted");
+        }
+        reader.interrupt();
+        try {
+            writer.join();
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        }
+        if (_writeError != null) {
+            throw _writeError;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Convert the text of BATCH in place, applying its settings lines
+     *  in order.  If there is an error, truncate BATCH just before the
+     *  line that caused it, mark it last, and return the error;
+     *  otherwise return null. */
+    private RuntimeException convert(Batch batch) {
+        int bad = batch.badSpan(_mach.alphabet());
+        int limit = bad < 0 ? batch.events : bad;
+        int runStart = 0;
+        for (int k = 0; k < limit; k += 1) {
+            if (batch.kinds[k] == MessageReader.SETTINGS) {
+                convert(batch.text, runStart, batch.ends[k]);
+                runStart = batch.ends[k];
+                try {
+                    _setUp.accept(batch.settings[k]);
+                } catch (RuntimeException excp) {
+                    batch.truncate(k, runStart);
+                    batch.last = true;
+                    return excp;
+                }
+            }
+        }
+        if (bad >= 0) {
+            int pos = batch.spanStart(bad);
+            convert(batch.text, runStart, pos);
+            batch.truncate(bad, pos);
+            batch.last = true;
+            return error("contains char not in _alpha");
+        }
+        convert(batch.text, runStart, batch.length);
+        return null;
+    }
+
+    /** Convert TEXT[START .. END-1] in place. */
+    private void convert(byte[] text, int start, int end) {
+        if (_parallel != null) {
+            _parallel.convert(_mach, text, start, end - start);
+        } else {
+            _mach.convert(text, text, start, end - start);
+        }
+    }
+
+    /** Body of the reader thread: fill batches from _input until the end
+     *  of input or an error. */
+    private void readBatches() {
+        try {
+            Batch batch = _free.take();
+            try {
+                while (true) {
+                    int kind = _input.next();
+                    if (kind == MessageReader.END_OF_INPUT) {
+                        break;
+                    } else if (kind == MessageReader.TEXT) {
+                        int n = _input.textLength();
+                        if (batch.length + n > batch.text.length) {
+                            _read.put(batch);
+                            batch = _free.take();
+                        }
+                        System.arraycopy(_input.text(), 0, batch.text,
+                                         batch.length, n);
+                        batch.length += n;
+                    } else {
+                        if (batch.events == MAX_EVENTS) {
+                            _read.put(batch);
+                            batch = _free.take();
+                        }
+                        batch.add(kind, kind == MessageReader.SETTINGS
+                                  ? _input.settings() : null);
+                    }
+                }
+            } catch (RuntimeException excp) {
+                batch.error = excp;
+            }
+            batch.last = true;
+            _read.put(batch);
+        } catch (InterruptedException excp) {
+            return;
+        }
+    }
+
+    /** Body of the writer thread: print batches until the last one. */
+    private void writeBatches() {
+        try {
+            while (true) {
+                Batch batch = _converted.take();
+                if (_writeError == null) {
+                    try {
+                        batch.print(_output);
+                    } catch (RuntimeException excp) {
+                        _writeError = excp;
+                    }
+                }
+                boolean last = batch.last;
+                batch.clear();
+                _free.put(batch);
+                if (last) {
+                    return;
+                }
+            }
+        } catch (InterruptedException excp) {
+            return;
+        }
+    }
+
+    /** A stretch of input passed between the stages. */
+    private static class Batch extends MessageText {
+
+        /** A batch holding up to CAPACITY characters of text. */
+        Batch(int capacity) {
+            super(capacity, MAX_EVENTS);
+        }
+
+        @Override
+        void clear() {
+            super.clear();
+            error = null;
+            last = false;
+        }
+
+        /** Error that ended the input after this batch, or null. */
+        RuntimeException error;
+        /** True iff this is the last batch. */
+        boolean last;
+    }
+
+    /** Source of input. */
+    private final MessageReader _input;
+    /** Destination of output, used only by the writer thread. */
+    private final MessageWriter _output;
+    /** The machine, used only by the calling thread. */
+    private final Machine _mach;
+    /** Applies settings lines to _mach. */
+    private final Consumer<String> _setUp;
+    /** Converter for long stretches of text, or null. */
+    private final ParallelConverter _parallel;
+    /** Batches not in use. */
+    private final BlockingQueue<Batch> _free;
+    /** Batches read but not converted. */
+    private final BlockingQueue<Batch> _read;
+    /** Batches converted but not printed. */
+    private final BlockingQueue<Batch> _converted;
+    /** The first error in the writer thread, or null. */
+    private volatile RuntimeException _writeError;
+}
@@ -0,0 +1,485 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Recovers the plugboard of a machine whose rotors are known, by hill
+ *  climbing over plugboard pairs, scoring each trial decryption by the
+ *  log probabilities of its n-grams.  The permutation applied by the
+ *  rotors at each position of the message is tabulated once.  The
+ *  decryption of ciphertext character C at position I under plugboard
+ *  P is then P(T(P(C))), where T is the rotors' permutation there.  A
+ *  change to the partners of a few characters alters only the positions
+ *  where one of them is either the ciphertext character or the rotors'
+ *  output, which are found from lists kept for each character, so only
+ *  the n-grams covering those positions are rescored.  No trial
+ *  allocates anything.
+ *  @author annetta
+ */
+class PlugboardSolver {
+
+    /** A solver for CIPHER, the result of converting a message with MACH
+     *  (at its current settings) and some plugboard, scoring with
+     *  NGRAMS.  The search starts from the plugboard of MACH, which must
+     *  consist of pairs and single characters.  Whitespace in CIPHER is
+     *  ignored. */
+    PlugboardSolver(Machine mach, String cipher, NGramTable ngrams) {
+        Alphabet alpha = mach.alphabet();
+        if (ngrams.alphabet().size() != alpha.size()) {
+            throw error("n-grams are for a different alphabet");
+        }
+        _alphabet = alpha;
+        _ngrams = ngrams;
+        _size = alpha.size();
+        _cipher = alpha.indices(cipher);
+        int len = _cipher.length;
+        if (len < ngrams.length()) {
+            throw error("ciphertext shorter than n-grams");
+        }
+        _plug = mach.plugboard().forwardTable().clone();
+        for (int c = 0; c < _size; c += 1) {
+            if (_plug[_plug[c]] != c) {
+                throw error("plugboard must consist of pairs");
+            }
+        }
+        _tables = rotorTables(mach, len);
+        _cipherStart = new int[_size + 1];
+        _cipherPos = new int[len];
+        for (int c : _cipher) {
+            _cipherStart[c + 1] += 1;
+        }
+        for (int c = 0; c < _size; c += 1) {
+            _cipherStart[c + 1] += _cipherStart[c];
+        }
+        int[] next = Arrays.copyOf(_cipherStart, _size);
+        for (int i = 0; i < len; i += 1) {
+            _cipherPos[next[_cipher[i]]++] = i;
+        }
+        _mid = new int[len];
+        _plain = new int[len];
+        _head = new int[_size];
+        _next = new int[len];
+        _prev = new int[len];
+        Arrays.fill(_head, -1);
+        for (int i = 0; i < len; i += 1) {
+            _mid[i] = _tables[i * _size + _plug[_cipher[i]]];
+            _plain[i] = _plug[_mid[i]];
+            link(i);
+        }
+        int grams = len - ngrams.length() + 1;
+        _gramScores = new float[grams];
+        for (int s = 0; s < grams; s += 1) {
+            _gramScores[s] = ngrams.score(_plain, s);
+            _score += _gramScores[s];
+        }
+        _stamp = new int[len];
+        _gramStamp = new int[grams];
+        _touched = new int[len];
+        _oldMid = new int[len];
+        _oldPlain = new int[len];
+        _starts = new int[grams];
+        _newScores = new float[grams];
+    }
+
+    /** Return the permutation applied by the rotors of MACH, without its
+     *  plugboard, at each of the next LEN positions, as rows of alphabet
+     *  size entries. */
+    private int[] rotorTables(Machine mach, int len) {
+        MachineState state = mach.snapshot();
+        int numRotors = mach.numRotors();
+        int[] positions = new int[numRotors], rings = new int[numRotors];
+        for (int k = 0; k < numRotors; k += 1) {
+            positions[k] = state.position(k);
+            rings[k] = state.ring(k);
+        }
+        MachineCore core = new MachineCore(mach, positions, rings);
+        int[] tables = new int[len * _size];
+        for (int i = 0, t = 0; i < len; i += 1) {
+            core.stepped(mach.step(positions));
+            for (int x = 0; x < _size; x += 1, t += 1) {
+                tables[t] = core.throughRotors(x);
+            }
+        }
+        return tables;
+    }
+
+    /** Climb from the current plugboard, trying for each two characters
+     *  the plugboard that pairs them (or unpairs them, if paired),
+     *  keeping any that raises the score, until none does.  No plugboard
+     *  with more than MAXPAIRS pairs is tried.  Returns the final
+     *  plugboard. */
+    Permutation solve(int maxPairs) {
+        int pairs = 0;
+        for (int c = 0; c < _size; c += 1) {
+            if (_plug[c] > c) {
+                pairs += 1;
+            }
+        }
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int a = 0; a < _size; a += 1) {
+                for (int b = a + 1; b < _size; b += 1) {
+                    int x = _plug[a], y = _plug[b];
+                    int change;
+                    if (x == b) {
+                        _numChanged = 0;
+                        change(a, a);
+                        change(b, b);
+                        change = -1;
+                    } else {
+                        change = 1 - (x != a ? 1 : 0) - (y != b ? 1 : 0);
+                        if (pairs + change > maxPairs) {
+                            continue;
+                        }
+                        _numChanged = 0;
+                        change(a, b);
+                        change(b, a);
+                        if (x != a) {
+                            change(x, x);
+                        }
+                        if (y != b) {
+                            change(y, y);
+                        }
+                    }
+                    _trials += 1;
+                    if (rescore() > EPSILON) {
+                        accept();
+                        pairs += change;
+                        improved = true;
+                    } else {
+                        reject();
+                    }
+                }
+            }
+        }
+        return new Permutation(_plug.clone(), _alphabet);
+    }
+
+    /** Return the current plugboard as cycles, as in a settings line. */
+    String plugboard() {
+        StringBuilder result = new StringBuilder();
+        for (int c = 0; c < _size; c += 1) {
+            if (_plug[c] > c) {
+                if (result.length() > 0) {
+                    result.append(' ');
+                }
+                result.append('(').appendCodePoint(_alphabet.toCodePoint(c))
+                    .appendCodePoint(_alphabet.toCodePoint(_plug[c]))
+                    .append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the score of the decryption with the current plugboard: the
+     *  sum of the log probabilities of its n-grams. */
+    double score() {
+        return _score;
+    }
+
+    /** Return the number of plugboards tried so far. */
+    long trials() {
+        return _trials;
+    }
+
+    /** Return the decryption with the current plugboard. */
+    String plaintext() {
+        StringBuilder result = new StringBuilder();
+        for (int c : _plain) {
+            result.appendCodePoint(_alphabet.toCodePoint(c));
+        }
+        return result.toString();
+    }
+
+    /** Make the plugboard send C to D for the trial in progress,
+     *  remembering C's old partner. */
+    private void change(int c, int d) {
+        _changed[_numChanged] = c;
+        _oldPlug[_numChanged] = _plug[c];
+        _numChanged += 1;
+        _plug[c] = d;
+    }
+
+    /** Recompute the decryption at the positions affected by the
+     *  characters whose partners have changed, and return the resulting
+     *  change in score, without recording it. */
+    private double rescore() {
+        _epoch += 1;
+        if (_epoch == Integer.MAX_VALUE) {
+            Arrays.fill(_stamp, 0);
+            Arrays.fill(_gramStamp, 0);
+            _epoch = 1;
+        }
+        _numTouched = 0;
+        for (int j = 0; j < _numChanged; j += 1) {
+            int c = _changed[j];
+            for (int p = _cipherStart[c]; p < _cipherStart[c + 1]; p += 1) {
+                touch(_cipherPos[p]);
+            }
+            for (int i = _head[c]; i != -1; i = _next[i]) {
+                touch(i);
+            }
+        }
+        int n = _ngrams.length(), last = _gramScores.length - 1;
+        _numStarts = 0;
+        double delta = 0;
+        for (int j = 0; j < _numTouched; j += 1) {
+            int i = _touched[j];
+            for (int s = Math.max(0, i - n + 1); s <= Math.min(i, last);
+                 s += 1) {
+                if (_gramStamp[s] != _epoch) {
+                    _gramStamp[s] = _epoch;
+                    float score = _ngrams.score(_plain, s);
+                    _starts[_numStarts] = s;
+                    _newScores[_numStarts] = score;
+                    _numStarts += 1;
+                    delta += score - _gramScores[s];
+                }
+            }
+        }
+        _delta = delta;
+        return delta;
+    }
+
+    /** Recompute the decryption at position I with the trial plugboard,
+     *  unless already done for this trial, remembering its old value. */
+    private void touch(int i) {
+        if (_stamp[i] == _epoch) {
+            return;
+        }
+        _stamp[i] = _epoch;
+        _touched[_numTouched] = i;
+        _oldMid[_numTouched] = _mid[i];
+        _oldPlain[_numTouched] = _plain[i];
+        _numTouched += 1;
+        int mid = _tables[i * _size + _plug[_cipher[i]]];
+        _mid[i] = mid;
+        _plain[i] = _plug[mid];
+    }
+
+    /** Keep the trial plugboard. */
+    private void accept() {
+        for (int j = 0; j < _numStarts; j += 1) {
+            _gramScores[_starts[j]] = _newScores[j];
+        }
+        _score += _delta;
+        for (int j = 0; j < _numTouched; j += 1) {
+            int i = _touched[j];
+            if (_mid[i] != _oldMid[j]) {
+                unlink(i, _oldMid[j]);
+                link(i);
+            }
+        }
+    }
+
+    /** Return to the plugboard before the trial. */
+    private void reject() {
+        for (int j = _numChanged - 1; j >= 0; j -= 1) {
+            _plug[_changed[j]] = _oldPlug[j];
+        }
+        for (int j = 0; j < _numTouched; j += 1) {
+            int i = _touched[j];
+            _mid[i] = _oldMid[j];
+            _plain[i] = _oldPlain[j];
+        }
+    }
+
+    /** Add position I to the list of positions whose rotor output is
+     *  _mid[I]. */
+    private void link(int i) {
+        int m = _mid[i];
+        _prev[i] = -1;
+        _next[i] = _head[m];
+        if (_head[m] != -1) {
+            _prev[_head[m]] = i;
+        }
+        _head[m] = i;
+    }
+
+    /** Remove position I from the list of positions whose rotor output
+     *  is M. */
+    private void unlink(int i, int m) {
+        if (_prev[i] == -1) {
+            _head[m] = _next[i];
+        } else {
+            _next[_prev[i]] = _next[i];
+        }
+        if (_next[i] != -1) {
+            _prev[_next[i]] = _prev[i];
+        }
+    }
+
+    /** Recover the plugboards for a ciphertext, as described by ARGS:
+     *  CONFIG NGRAMS CIPHERTEXT, where CONFIG is a configuration file or
+     *  image, NGRAMS a file of n-gram counts (see NGramTable.load), and
+     *  CIPHERTEXT a string.  Settings lines are read from the standard
+     *  input, ignoring anything before the '*' on each line, so that the
+     *  output of Bombe or HillClimb may be given; any plugboard they give
+     *  is the starting point for the search.  The option --threads=N
+     *  solves for N settings lines at once (by default, one per
+     *  processor), and --max-pairs=N limits the plugboards tried to N
+     *  pairs.  Prints the score and completed settings line for each,
+     *  best first. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--threads=(\\d+) --max-pairs=(\\d+) "
+                                + "--=(.*){3}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.PlugboardSolver "
+                            + "[--threads=N] [--max-pairs=N] "
+                            + "CONFIG NGRAMS CIPHERTEXT < SETTINGS");
+            }
+            List<String> operands = options.get("--");
+            int threads = Main.threads(options, "--threads");
+            Machine model = Main.configure(operands.get(0));
+            NGramTable ngrams =
+                NGramTable.load(operands.get(1), model.alphabet());
+            int maxPairs = options.getInt("--max-pairs", 10,
+                                          model.alphabet().size() / 2);
+            String cipher = operands.get(2);
+            List<Callable<Solution>> solves = new ArrayList<>();
+            for (String line : settingsLines()) {
+                solves.add(() -> {
+                    Machine mach = new Machine(model);
+                    Main.configure(mach, line);
+                    String rotors = line.replaceAll("\\s*\\(.*", "");
+                    PlugboardSolver solver =
+                        new PlugboardSolver(mach, cipher, ngrams);
+                    solver.solve(maxPairs);
+                    return new Solution(solver.score(),
+                                        rotors + " " + solver.plugboard());
+                });
+            }
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Solution> results = new ArrayList<>();
+            try {
+                for (Future<Solution> solve : pool.invokeAll(solves)) {
+                    results.add(solve.get());
+                }
+            } catch (InterruptedException excp) {
+                throw error("interrupted");
+            } catch (ExecutionException excp) {
+                throw failure(excp);
+            } finally {
+                pool.shutdownNow();
+            }
+            results.sort((r0, r1) -> Double.compare(r1.score, r0.score));
+            for (Solution result : results) {
+                System.out.printf("%.2f %s%n", result.score,
+                                  result.line.trim());
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A completed settings line found by main, with its score. */
+    private static final class Solution {
+        /** The settings line LINE, whose plaintext scores SCORE. */
+        Solution(double score, String line) {
+            this.score = score;
+            this.line = line;
+        }
+
+        /** Score of the plaintext. */
+        final double score;
+        /** The completed settings line. */
+        final String line;
+    }
+
+    /** Return the settings lines on the standard input, each starting at
+     *  its '*'. */
+    private static List<String> settingsLines() {
+        List<String> lines = new ArrayList<>();
+        try {
+            BufferedReader in =
+                new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while ((line = in.readLine()) != null) {
+                int star = line.indexOf('*');
+                if (star >= 0) {
+                    lines.add(line.substring(star).trim());
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read settings");
+        }
+        return lines;
+    }
+
+    /** Smallest rise in score that counts as an improvement. */
+    private static final double EPSILON = 1e-4;
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+    /** Log probabilities of n-grams. */
+    private final NGramTable _ngrams;
+    /** Size of _alphabet. */
+    private final int _size;
+    /** The ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+    /** The rotors' permutation at each position, one row of _size
+     *  entries per position. */
+    private final int[] _tables;
+    /** The partner of each character on the plugboard. */
+    private final int[] _plug;
+    /** The positions at which ciphertext character C occurs are
+     *  _cipherPos[_cipherStart[C] .. _cipherStart[C + 1] - 1]. */
+    private final int[] _cipherStart, _cipherPos;
+    /** The rotors' output at each position, with the current plugboard. */
+    private final int[] _mid;
+    /** The decryption with the current plugboard. */
+    private final int[] _plain;
+    /** The positions whose rotor output is C form a list starting at
+     *  _head[C] and linked through _next and _prev, ending with -1. */
+    private final int[] _head, _next, _prev;
+    /** The score of the n-gram starting at each position. */
+    private final float[] _gramScores;
+    /** Sum of _gramScores. */
+    private double _score;
+    /** Number of plugboards tried. */
+    private long _trials;
+
+    /** Characters whose partners the trial in progress changes, and
+     *  their old partners. */
+    private final int[] _changed = new int[4], _oldPlug = new int[4];
+    /** Number of entries in _changed. */
+    private int _numChanged;
+    /** The trial in progress is numbered _epoch; positions and n-gram
+     *  starts it has visited are marked with it in _stamp and
+     *  _gramStamp. */
+    private final int[] _stamp, _gramStamp;
+    /** Current trial number. */
+    private int _epoch;
+    /** Positions recomputed by the trial in progress, with their old
+     *  rotor outputs and decryptions. */
+    private final int[] _touched, _oldMid, _oldPlain;
+    /** Number of entries in _touched. */
+    private int _numTouched;
+    /** N-grams rescored by the trial in progress, and their new
+     *  scores. */
+    private final int[] _starts;
+    /** New scores of the n-grams starting at _starts. */
+    private final float[] _newScores;
+    /** Number of entries in _starts. */
+    private int _numStarts;
+    /** Change in score from the trial in progress. */
+    private double _delta;
+}
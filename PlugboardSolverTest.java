@@ -0,0 +1,100 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the PlugboardSolver and NGramTable
+ *  classes.
+ *  @author annetta
+ */
+public class PlugboardSolverTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    private static Machine machine() {
+        Machine mach = navalMachine();
+        mach.insertRotors(new String[] { "B", "IV", "I" });
+        mach.setRotors("KD");
+        mach.setRotorRing("CF");
+        return mach;
+    }
+
+    /** Training text for the n-gram tables, independent of the
+     *  messages recovered. */
+    private static final String LINCOLN =
+        "FOURSCOREANDSEVENYEARSAGOOURFATHERSBROUGHTFORTHONTHISCONTINE"
+        + "NTANEWNATIONCONCEIVEDINLIBERTYANDDEDICATEDTOTHEPROPOSITIONTH"
+        + "ATALLMENARECREATEDEQUALNOWWEAREENGAGEDINAGREATCIVILWARTESTIN"
+        + "GWHETHERTHATNATIONORANYNATIONSOCONCEIVEDANDSODEDICATEDCANLON"
+        + "GENDUREWEAREMETONAGREATBATTLEFIELDOFTHATWARWEHAVECOMETODEDIC"
+        + "ATEAPORTIONOFTHATFIELDASAFINALRESTINGPLACEFORTHOSEWHOHEREGAV"
+        + "ETHEIRLIVESTHATTHATNATIONMIGHTLIVEITISALTOGETHERFITTINGANDPR"
+        + "OPERTHATWESHOULDDOTHISBUTINALARGERSENSEWECANNOTDEDICATEWECAN"
+        + "NOTCONSECRATEWECANNOTHALLOWTHISGROUNDTHEBRAVEMENLIVINGANDDEA"
+        + "DWHOSTRUGGLEDHEREHAVECONSECRATEDITFARABOVEOURPOORPOWERTOADDO"
+        + "RDETRACTTHEWORLDWILLLITTLENOTENORLONGREMEMBERWHATWESAYHEREBU"
+        + "TITCANNEVERFORGETWHATTHEYDIDHEREITISFORUSTHELIVINGRATHERTOBE"
+        + "DEDICATEDHERETOTHEUNFINISHEDWORKWHICHTHEYWHOFOUGHTHEREHAVETH"
+        + "USFARSONOBLYADVANCEDITISRATHERFORUSTOBEHEREDEDICATEDTOTHEGRE"
+        + "ATTASKREMAININGBEFOREUSTHATFROMTHESEHONOREDDEADWETAKEINCREAS"
+        + "EDDEVOTIONTOTHATCAUSEFORWHICHTHEYGAVETHELASTFULLMEASUREOFDEV"
+        + "OTIONTHATWEHEREHIGHLYRESOLVETHATTHESEDEADSHALLNOTHAVEDIEDINV"
+        + "AINTHATTHISNATIONUNDERGODSHALLHAVEANEWBIRTHOFFREEDOMANDTHATG"
+        + "OVERNMENTOFTHEPEOPLEBYTHEPEOPLEFORTHEPEOPLESHALLNOTPERISHFRO"
+        + "MTHEEARTH";
+
+    private static NGramTable trigrams() {
+        TreeMap<String, Long> counts = new TreeMap<>();
+        for (int i = 0; i + 3 <= LINCOLN.length(); i += 1) {
+            counts.merge(LINCOLN.substring(i, i + 3), 1L, Long::sum);
+        }
+        return new NGramTable(UPPER, counts);
+    }
+
+    @Test
+    public void checkRecoversPlugboard() {
+        Machine mach = machine();
+        mach.setPlugboard(new Permutation("(AQ) (EP) (TZ) (RX) (HM)",
+                                          UPPER));
+        String cipher = mach.convert(DICKENS);
+
+        NGramTable ngrams = trigrams();
+        PlugboardSolver solver =
+            new PlugboardSolver(machine(), cipher, ngrams);
+        solver.solve(10);
+        assertEquals("(AQ) (EP) (HM) (RX) (TZ)", solver.plugboard());
+        assertEquals(DICKENS, solver.plaintext());
+        int[] plain = DICKENS.codePoints().map(UPPER::toInt).toArray();
+        double score = 0;
+        for (int i = 0; i + 3 <= plain.length; i += 1) {
+            score += ngrams.score(plain, i);
+        }
+        assertEquals(score, solver.score(), 1e-2);
+    }
+
+    @Test
+    public void checkLoad() throws IOException {
+        File file = File.createTempFile("enigma", ".txt");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "TH 3\nHE 1\n\nTH 4\n");
+        NGramTable table = NGramTable.load(file.getPath(), UPPER);
+        assertEquals(2, table.length());
+        int[] th = { UPPER.toInt('T'), UPPER.toInt('H') };
+        assertEquals(Math.log10(7.0 / 8), table.score(th, 0), 1e-6);
+        int[] zz = { UPPER.toInt('Z'), UPPER.toInt('Z') };
+        assertEquals(Math.log10(0.01 / 8), table.score(zz, 0), 1e-6);
+    }
+}
@@ -14,6 +14,17 @@ class Reflector extends FixedRotor {
         _name = name;
     }
 
+    /** A reflector with wiring WIRING. */
+    private Reflector(RotorWiring wiring) {
+        super(wiring);
+        _name = wiring.name();
+    }
+
+    @Override
+    Rotor copy() {
+        return copyState(new Reflector(wiring()));
+    }
+
     @Override
     public String toString() {
         return "Reflector " + _name;
@@ -1,19 +1,38 @@
 package enigma;
 
-import static enigma.EnigmaException.*;
-
-/** Superclass that represents a rotor in the enigma machine.
+/** Superclass that represents a rotor in the enigma machine: a wiring,
+ *  which may be shared with other rotors, and the rotor's own setting
+ *  and ring setting.
  *  @author annetta
  */
 class Rotor {
 
     /** A rotor named NAME whose permutation is given by PERM. */
     Rotor(String name, Permutation perm) {
-        _name = name;
-        _permutation = perm;
+        this(new RotorWiring(name, perm, ""));
+    }
+
+    /** A rotor with wiring WIRING, in its 0 setting. */
+    protected Rotor(RotorWiring wiring) {
+        _wiring = wiring;
+        _name = wiring.name();
+        _permutation = wiring.permutation();
         _setting = 0;
         _ring = 0;
-        _notches = "";
+    }
+
+    /** Return a new rotor of the same kind as me, sharing my wiring,
+     *  whose setting and ring setting start out as mine but change
+     *  independently of them. */
+    Rotor copy() {
+        return copyState(new Rotor(_wiring));
+    }
+
+    /** Give COPY my setting and ring setting, and return it. */
+    protected Rotor copyState(Rotor copy) {
+        copy._setting = _setting;
+        copy._ring = _ring;
+        return copy;
     }
 
     /** Return my name. */
@@ -21,6 +40,11 @@ class Rotor {
         return _name;
     }
 
+    /** Return my wiring. */
+    RotorWiring wiring() {
+        return _wiring;
+    }
+
     /** Return my alphabet. */
     Alphabet alphabet() {
         return _permutation.alphabet();
@@ -83,7 +107,7 @@ class Rotor {
         int mid = _permutation.permute(in);
         int result = _permutation.wrap(mid - _setting + _ring);
         if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(result));
+            System.err.printf("%c -> ", alphabet().toCodePoint(result));
         }
         return result;
     }
@@ -95,19 +119,34 @@ class Rotor {
         int mid = _permutation.invert(in);
         int result = _permutation.wrap(mid - _setting + _ring);
         if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(result));
+            System.err.printf("%c -> ", alphabet().toCodePoint(result));
         }
         return result;
     }
 
+    /** Return a table of my forward conversions at every setting, as
+     *  for RotorWiring.shiftedForward.  The result must not be
+     *  modified. */
+    byte[] shiftedForward() {
+        return _wiring.shiftedForward();
+    }
+
+    /** Return the table corresponding to shiftedForward() for the
+     *  inverse of my permutation. */
+    byte[] shiftedBackward() {
+        return _wiring.shiftedBackward();
+    }
+
     /** Returns the positions of the notches, as a string giving the letters
      *  on the ring at which they occur. */
     String notches() {
         return "";
     }
 
-    void setNotches(String notches) {
-        _notches = notches;
+    /** Returns a bit set, one bit per setting, whose bit K is on iff I am
+     *  at a notch in setting K.  The result must not be modified. */
+    long[] notchMask() {
+        return _wiring.notchMask();
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
@@ -125,19 +164,22 @@ class Rotor {
         return "Rotor " + _name;
     }
 
+    /** My wiring. */
+    private final RotorWiring _wiring;
+
     /** My name. */
     protected final String _name;
 
     /** The permutation implemented by this rotor in its 0 position. */
-    protected Permutation _permutation;
+    protected final Permutation _permutation;
 
     /** My SETTING. */
     protected int _setting;
 
-    /** My NOTHCES. */
-    private String _notches;
-
     /** My ring SETTING. */
     protected int _ring;
 
+    /** Largest alphabet for which shifted tables are available. */
+    static final int MAX_SHIFTED_SIZE = RotorWiring.MAX_SHIFTED_SIZE;
+
 }
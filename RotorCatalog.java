@@ -0,0 +1,174 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/** The rotors available to a family of machines, as read from one
+ *  configuration.  A catalog's contents never change, so it may back any
+ *  number of machines, each of which works with its own copies of the
+ *  rotors it uses (see Rotor.copy), which share their wirings.  The
+ *  rotors of a catalog may be compiled lazily, the first time they are
+ *  requested, so that a large catalog costs little more than its names
+ *  until its rotors are used.
+ *  @author annetta
+ */
+final class RotorCatalog {
+
+    /** A catalog of ROTORS.  If two have the same name, the later one is
+     *  used.  The rotors serve only as models, and are never modified. */
+    RotorCatalog(Collection<Rotor> rotors) {
+        _index = new HashMap<>();
+        _names = new ArrayList<>();
+        _rotors = new ArrayList<>();
+        for (Rotor r : rotors) {
+            Integer k = _index.get(r.name());
+            if (k == null) {
+                _index.put(r.name(), _names.size());
+                _names.add(r.name());
+                _rotors.add(r);
+            } else {
+                _rotors.set(k, r);
+            }
+        }
+        _sources = null;
+        _compiler = null;
+    }
+
+    /** A catalog of rotors named NAMES, where the rotor named NAMES[K] is
+     *  the result of COMPILER.apply(K), which is called at most once for
+     *  each K, when that rotor is first requested.  If two rotors have
+     *  the same name, the later one is used. */
+    RotorCatalog(List<String> names, IntFunction<Rotor> compiler) {
+        _index = new HashMap<>();
+        _names = new ArrayList<>();
+        _rotors = new ArrayList<>();
+        _sources = new ArrayList<>();
+        for (int i = 0; i < names.size(); i += 1) {
+            String name = names.get(i);
+            Integer k = _index.get(name);
+            if (k == null) {
+                _index.put(name, _names.size());
+                _names.add(name);
+                _rotors.add(null);
+                _sources.add(i);
+            } else {
+                _sources.set(k, i);
+            }
+        }
+        _compiler = compiler;
+    }
+
+    /** Return the number of rotors in the catalog. */
+    int size() {
+        return _names.size();
+    }
+
+    /** Return true iff there is a rotor named NAME. */
+    boolean contains(String name) {
+        return _index.containsKey(name);
+    }
+
+    /** Return the rotor named NAME, compiling it if necessary, or null if
+     *  there is none.  The result must not be modified. */
+    synchronized Rotor get(String name) {
+        Integer k = _index.get(name);
+        if (k == null) {
+            return null;
+        }
+        Rotor r = _rotors.get(k);
+        if (r == null) {
+            r = _compiler.apply(_sources.get(k));
+            _rotors.set(k, r);
+        }
+        return r;
+    }
+
+    /** Return the number of my rotors compiled so far. */
+    synchronized int compiled() {
+        int n = 0;
+        for (Rotor r : _rotors) {
+            if (r != null) {
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** Return all my rotors, compiling any not yet compiled, in the order
+     *  in which they were first given. */
+    List<Rotor> rotors() {
+        ArrayList<Rotor> result = new ArrayList<>();
+        for (String name : _names) {
+            result.add(get(name));
+        }
+        return result;
+    }
+
+    /** Return every order of my rotors that a machine with NUMROTORS
+     *  slots and PAWLS pawls can hold: a reflector, followed by distinct
+     *  non-moving rotors up to the first pawl, and distinct moving rotors
+     *  in the remaining slots.  Compiles all my rotors. */
+    List<String[]> orders(int numRotors, int pawls) {
+        List<String> reflectors = new ArrayList<>(),
+            fixed = new ArrayList<>(), moving = new ArrayList<>();
+        for (Rotor r : rotors()) {
+            if (r.reflecting()) {
+                reflectors.add(r.name());
+            } else if (r.rotates()) {
+                moving.add(r.name());
+            } else {
+                fixed.add(r.name());
+            }
+        }
+        List<String[]> result = new ArrayList<>();
+        String[] order = new String[numRotors];
+        for (String reflector : reflectors) {
+            order[0] = reflector;
+            arrange(order, 1, numRotors - pawls, fixed, moving,
+                    new boolean[fixed.size()], new boolean[moving.size()],
+                    result);
+        }
+        return result;
+    }
+
+    /** Add to RESULT each completion of ORDER from slot K on, taking
+     *  rotors for the slots before FIRSTPAWL from FIXED and for the rest
+     *  from MOVING, skipping those marked in FIXEDUSED and MOVINGUSED. */
+    private static void arrange(String[] order, int k, int firstPawl,
+                                List<String> fixed, List<String> moving,
+                                boolean[] fixedUsed, boolean[] movingUsed,
+                                List<String[]> result) {
+        if (k == order.length) {
+            result.add(order.clone());
+            return;
+        }
+        boolean rotates = k >= firstPawl;
+        List<String> names = rotates ? moving : fixed;
+        boolean[] used = rotates ? movingUsed : fixedUsed;
+        for (int i = 0; i < names.size(); i += 1) {
+            if (!used[i]) {
+                used[i] = true;
+                order[k] = names.get(i);
+                arrange(order, k + 1, firstPawl, fixed, moving, fixedUsed,
+                        movingUsed, result);
+                used[i] = false;
+            }
+        }
+    }
+
+    /** Index of each rotor name in _names. */
+    private final HashMap<String, Integer> _index;
+    /** The distinct rotor names, in order of first appearance. */
+    private final ArrayList<String> _names;
+    /** The rotor named by each element of _names, or null if it has not
+     *  been compiled. */
+    private final ArrayList<Rotor> _rotors;
+    /** The argument to _compiler for each element of _names, or null if
+     *  all rotors are given at construction. */
+    private final ArrayList<Integer> _sources;
+    /** Compiles rotors, or null if all are given at construction. */
+    private final IntFunction<Rotor> _compiler;
+}
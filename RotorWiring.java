@@ -0,0 +1,113 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** The fixed description of a rotor: its name, its permutation in its 0
+ *  setting, and its notches, together with tables derived from them.
+ *  A wiring never changes once built, and may be shared by any number of
+ *  rotors in any number of machines, on any number of threads.
+ *  @author annetta
+ */
+final class RotorWiring {
+
+    /** Largest alphabet for which shifted tables are available. */
+    static final int MAX_SHIFTED_SIZE = 256;
+
+    /** The wiring of a rotor named NAME whose permutation in its 0
+     *  setting is PERM, with notches at the letters of NOTCHES.  Letters
+     *  of NOTCHES that are not in the alphabet of PERM are ignored.  PERM
+     *  must not be modified afterwards. */
+    RotorWiring(String name, Permutation perm, String notches) {
+        _name = name;
+        _permutation = perm;
+        _notches = notches;
+        Alphabet alpha = perm.alphabet();
+        _notchMask = new long[(perm.size() + 63) >>> 6];
+        int k = 0;
+        while (k < notches.length()) {
+            int c = notches.codePointAt(k);
+            k += Character.charCount(c);
+            if (alpha.contains(c)) {
+                int posn = alpha.toInt(c);
+                _notchMask[posn >>> 6] |= 1L << posn;
+            }
+        }
+    }
+
+    /** Return my name. */
+    String name() {
+        return _name;
+    }
+
+    /** Return my permutation in the 0 setting. */
+    Permutation permutation() {
+        return _permutation;
+    }
+
+    /** Return the letters on the ring at which my notches occur. */
+    String notches() {
+        return _notches;
+    }
+
+    /** Returns a bit set, one bit per setting, whose bit K is on iff a
+     *  rotor with this wiring is at a notch in setting K.  The result
+     *  must not be modified. */
+    long[] notchMask() {
+        return _notchMask;
+    }
+
+    /** Return a table of my forward conversions at every setting: the
+     *  entry at D * N + P, taken as unsigned, is the conversion of P when
+     *  the setting less the ring setting is D (modulo the alphabet size
+     *  N).  Only available when N <= MAX_SHIFTED_SIZE.  The result must
+     *  not be modified. */
+    synchronized byte[] shiftedForward() {
+        if (_shiftedForward == null) {
+            _shiftedForward = shiftedTable(false);
+        }
+        return _shiftedForward;
+    }
+
+    /** Return the table corresponding to shiftedForward() for the
+     *  inverse of my permutation. */
+    synchronized byte[] shiftedBackward() {
+        if (_shiftedBackward == null) {
+            _shiftedBackward = shiftedTable(true);
+        }
+        return _shiftedBackward;
+    }
+
+    /** Return a new shifted table of my permutation, or of its inverse
+     *  if INVERSE. */
+    private byte[] shiftedTable(boolean inverse) {
+        int n = _permutation.size();
+        if (n > MAX_SHIFTED_SIZE) {
+            throw error("alphabet too large for shifted tables");
+        }
+        byte[] table = new byte[n * n];
+        for (int d = 0; d < n; d += 1) {
+            for (int p = 0; p < n; p += 1) {
+                int in = _permutation.wrap(p + d);
+                int mid = inverse ? _permutation.invert(in)
+                    : _permutation.permute(in);
+                table[d * n + p] = (byte) _permutation.wrap(mid - d);
+            }
+        }
+        return table;
+    }
+
+    /** My name. */
+    private final String _name;
+    /** My permutation in the 0 setting. */
+    private final Permutation _permutation;
+    /** My notch letters. */
+    private final String _notches;
+    /** My notches as a bit set indexed by setting. */
+    private final long[] _notchMask;
+    /** My forward conversions at every setting, or null if not yet
+     *  computed. */
+    private byte[] _shiftedForward;
+    /** My backward conversions at every setting, or null if not yet
+     *  computed. */
+    private byte[] _shiftedBackward;
+}
@@ -0,0 +1,188 @@
+package enigma;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static enigma.EnigmaException.*;
+
+/** Converts the messages from a MessageReader concurrently, one piece
+ *  at a time, where the pieces are the stretches of input between
+ *  settings lines, further divided so that none is too long.  Settings
+ *  lines are still applied in order by the calling thread, since each
+ *  may depend on the ones before it (plugboard cycles accumulate, and
+ *  rotors keep their rings).  Each piece is converted by its own copy of
+ *  the machine as it was at the start of its stretch, advanced with
+ *  Machine.skip to the start of the piece, and pieces are printed in
+ *  input order.
+ *  @author annetta
+ */
+class SegmentConverter {
+
+    /** Largest number of message characters in a piece. */
+    static final int MAX_PIECE = 1 << 20;
+
+    /** Largest number of lines in a piece. */
+    static final int MAX_LINES = 1 << 14;
+
+    /** A converter that uses THREADS worker threads. */
+    SegmentConverter(int threads) {
+        _pool = Executors.newFixedThreadPool(threads, (r) -> {
+            Thread t = new Thread(r, "enigma-segment");
+            t.setDaemon(true);
+            return t;
+        });
+        _window = 4 * threads;
+    }
+
+    /** Convert the remaining input from INPUT with MACH, printing the
+     *  results on OUTPUT.  Settings lines are applied to MACH by SETUP.
+     *  Errors are thrown after all output preceding them has been
+     *  printed. */
+    void run(MessageReader input, MessageWriter output, Machine mach,
+             Consumer<String> setUp) {
+        _output = output;
+        Piece piece = new Piece(snapshot(mach), 0);
+        while (true) {
+            int kind;
+            try {
+                kind = input.next();
+            } catch (RuntimeException excp) {
+                piece.error = excp;
+                submit(piece);
+                break;
+            }
+            if (kind == MessageReader.END_OF_INPUT) {
+                submit(piece);
+                break;
+            } else if (kind == MessageReader.SETTINGS) {
+                submit(piece);
+                try {
+                    setUp.accept(input.settings());
+                } catch (RuntimeException excp) {
+                    piece = new Piece(null, 0);
+                    piece.error = excp;
+                    submit(piece);
+                    break;
+                }
+                piece = new Piece(snapshot(mach), 0);
+            } else if (kind == MessageReader.TEXT) {
+                int n = input.textLength();
+                if (piece.length + n > MAX_PIECE) {
+                    submit(piece);
+                    piece = piece.next();
+                }
+                piece.append(input.text(), n);
+            } else {
+                if (piece.events == MAX_LINES) {
+                    submit(piece);
+                    piece = piece.next();
+                }
+                piece.add(kind, null);
+            }
+        }
+        while (!_pending.isEmpty()) {
+            printNext();
+        }
+    }
+
+    /** Stop my worker threads. */
+    void shutdown() {
+        _pool.shutdownNow();
+    }
+
+    /** Return a copy of MACH, which is unaffected by later changes to
+     *  MACH, and whose period table, if any, is built once for all the
+     *  pieces that copy it. */
+    private static Machine snapshot(Machine mach) {
+        mach.buildPeriodTable();
+        return new Machine(mach);
+    }
+
+    /** Start converting PIECE, first printing the oldest pieces if too
+     *  many are in progress. */
+    private void submit(Piece piece) {
+        while (_pending.size() >= _window) {
+            printNext();
+        }
+        _pending.add(_pool.submit(piece::convert, piece));
+    }
+
+    /** Wait for the oldest piece in progress and print it, throwing its
+     *  error, if any, afterwards. */
+    private void printNext() {
+        Piece piece;
+        try {
+            piece = _pending.remove().get();
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            throw failure(excp);
+        }
+        piece.print(_output);
+        if (piece.error != null) {
+            throw piece.error;
+        }
+    }
+
+    /** A stretch of message text between settings lines, with the
+     *  positions of its line ends. */
+    private static class Piece extends MessageText {
+
+        /** An empty piece whose text starts OFFSET characters after the
+         *  point at which the machine had the settings of START. */
+        Piece(Machine start, long offset) {
+            super(INITIAL_SIZE, INITIAL_LINES);
+            _start = start;
+            _offset = offset;
+        }
+
+        /** Return an empty piece that continues this one. */
+        Piece next() {
+            return new Piece(_start, _offset + length);
+        }
+
+        /** Convert my text in place.  If it contains a character outside
+         *  the alphabet, first discard the line containing it and
+         *  everything after, and record the error. */
+        void convert() {
+            if (_start == null) {
+                return;
+            }
+            int bad = badSpan(_start.alphabet());
+            if (bad >= 0) {
+                truncate(bad, spanStart(bad));
+                error = error("contains char not in _alpha");
+            }
+            Machine mach = new Machine(_start);
+            mach.skip(_offset);
+            mach.convert(text, text, 0, length);
+        }
+
+        /** Error that follows this piece, or null. */
+        RuntimeException error;
+
+        /** Machine with the settings at the start of my stretch, or null
+         *  if I have no text. */
+        private final Machine _start;
+        /** Position of my text in my stretch. */
+        private final long _offset;
+    }
+
+    /** Initial capacity of a piece's text. */
+    private static final int INITIAL_SIZE = 1 << 10;
+    /** Initial capacity of a piece's line ends. */
+    private static final int INITIAL_LINES = 1 << 4;
+
+    /** Runs the conversions. */
+    private final ExecutorService _pool;
+    /** Largest number of pieces in progress. */
+    private final int _window;
+    /** Pieces in progress, oldest first. */
+    private final ArrayDeque<Future<Piece>> _pending = new ArrayDeque<>();
+    /** Destination of output. */
+    private MessageWriter _output;
+}
@@ -0,0 +1,106 @@
+package enigma;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded cache of the machine states produced by settings lines,
+ *  discarding the least recently used line when full.  The effect of a
+ *  settings line depends on more than the line: its plugboard cycles are
+ *  added to those already on the plugboard, and if it gives no ring
+ *  settings, the rotors keep the rings they had.  So each entry also
+ *  records the plugboard before the line and whether the line set the
+ *  rings, and is used only when those match.
+ *  @author annetta
+ */
+class SettingsCache {
+
+    /** A cache of at most CAPACITY settings lines. */
+    SettingsCache(int capacity) {
+        _capacity = capacity;
+        _entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> e) {
+                return size() > _capacity;
+            }
+        };
+    }
+
+    /** If the result of applying the settings line SETTINGS to MACH, in
+     *  its current state, is cached, restore MACH to it and return true.
+     *  Otherwise, return false. */
+    boolean apply(Machine mach, String settings) {
+        Entry entry = _entries.get(settings);
+        if (entry == null || !entry.matches(mach)) {
+            _misses += 1;
+            return false;
+        }
+        _hits += 1;
+        mach.restore(entry.result);
+        return true;
+    }
+
+    /** Record that applying SETTINGS to a machine whose plugboard was
+     *  BEFORE gave MACH's current state.  RINGSGIVEN is true iff
+     *  SETTINGS gave the ring settings.  BEFORE must not be modified
+     *  afterwards. */
+    void put(String settings, Permutation before, boolean ringsGiven,
+             Machine mach) {
+        _entries.put(settings,
+                     new Entry(before, ringsGiven, mach.snapshot()));
+    }
+
+    /** Return the number of lookups that found a usable entry. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups that did not. */
+    long misses() {
+        return _misses;
+    }
+
+    /** The outcome of one settings line. */
+    private static class Entry {
+
+        /** The outcome RESULT of a settings line applied to a machine
+         *  with plugboard BEFORE, which gave ring settings iff
+         *  RINGSGIVEN. */
+        Entry(Permutation before, boolean ringsGiven, MachineState result) {
+            this.before = before;
+            this.ringsGiven = ringsGiven;
+            this.result = result;
+        }
+
+        /** Return true iff applying my line to MACH would give result. */
+        boolean matches(Machine mach) {
+            if (!before.sameAs(mach.plugboard())) {
+                return false;
+            }
+            if (!ringsGiven) {
+                for (int k = 0; k < result.numRotors(); k += 1) {
+                    Rotor r = mach.rotor(result.rotor(k));
+                    if (r == null || r.ring() != result.ring(k)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Plugboard before the line. */
+        final Permutation before;
+        /** True iff the line gave ring settings. */
+        final boolean ringsGiven;
+        /** State after the line. */
+        final MachineState result;
+    }
+
+    /** Largest number of entries. */
+    private final int _capacity;
+    /** Entries by settings line, least recently used first. */
+    private final LinkedHashMap<String, Entry> _entries;
+    /** Number of successful lookups. */
+    private long _hits;
+    /** Number of unsuccessful lookups. */
+    private long _misses;
+}
@@ -1,5 +1,6 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /** Utility definitions for use in unit tests.
@@ -11,6 +12,61 @@ class TestUtils {
     protected static final String UPPER_STRING =
         "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
 
+    /** The opening of A Tale of Two Cities, without spaces, as a
+     *  message for tests that encrypt and recover text. */
+    static final String DICKENS =
+        "ITWASTHEBESTOFTIMESITWASTHEWORSTOFTIMESITWASTHEAGEOFWISDOM"
+        + "ITWASTHEAGEOFFOOLISHNESSITWASTHEEPOCHOFBELIEFITWASTHEEPOCH"
+        + "OFINCREDULITYITWASTHESEASONOFLIGHTITWASTHESEASONOFDARKNESS"
+        + "ITWASTHESPRINGOFHOPEITWASTHEWINTEROFDESPAIRWEHADEVERYTHING"
+        + "BEFOREUSWEHADNOTHINGBEFOREUSWEWEREALLGOINGDIRECTTOHEAVEN"
+        + "WEWEREALLGOINGDIRECTTHEOTHERWAY";
+
+    /** Return a machine over UPPER with 3 slots and 2 pawls, and no
+     *  rotors inserted, whose rotors are the naval reflector B and the
+     *  naval rotors I, III and IV.  It has 6 rotor orders, which makes
+     *  it small enough for exhaustive searches. */
+    static Machine navalMachine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)));
+        rotors.add(new MovingRotor("I",
+                new Permutation(NAVALA.get("I"), UPPER), "Q"));
+        rotors.add(new MovingRotor("III",
+                new Permutation(NAVALA.get("III"), UPPER), "V"));
+        rotors.add(new MovingRotor("IV",
+                new Permutation(NAVALA.get("IV"), UPPER), "J"));
+        return new Machine(UPPER, 3, 2, rotors);
+    }
+
+    /** Return the rotors over ALPHA of the four-rotor naval machine in
+     *  the acceptance tests, by name: the reflector B, the fixed rotor
+     *  Beta, and the naval rotors III, IV and I. */
+    static HashMap<String, Rotor> fiveSlotNavalRotors(Alphabet alpha) {
+        HashMap<String, Rotor> rotors = new HashMap<>();
+        rotors.put("B", new Reflector("B",
+                new Permutation(NAVALA.get("B"), alpha)));
+        rotors.put("Beta", new FixedRotor("Beta",
+                new Permutation(NAVALA.get("Beta"), alpha)));
+        rotors.put("III", new MovingRotor("III",
+                new Permutation(NAVALA.get("III"), alpha), "V"));
+        rotors.put("IV", new MovingRotor("IV",
+                new Permutation(NAVALA.get("IV"), alpha), "J"));
+        rotors.put("I", new MovingRotor("I",
+                new Permutation(NAVALA.get("I"), alpha), "Q"));
+        return rotors;
+    }
+
+    /** The rotors of fiveSlotNavalRotors, in the order of the acceptance
+     *  tests. */
+    static final String[] FIVE_SLOT_ORDER = { "B", "Beta", "III", "IV", "I" };
+
+    /** Return a machine over UPPER with 5 slots and 3 pawls, and no
+     *  rotors inserted, whose rotors are those of
+     *  fiveSlotNavalRotors. */
+    static Machine fiveSlotNavalMachine() {
+        return new Machine(UPPER, 5, 3, fiveSlotNavalRotors(UPPER).values());
+    }
+
     /** Return an identifying error message for failed assertions.
      *  TESTID identifies the test, MSGFORMAT and ARGS provide
      *  the details, as for String.format. */
@@ -16,6 +16,16 @@ public class UnitTest {
         }
         System.exit(textui.runClasses(PermutationTest.class,
                 MovingRotorTest.class,
-                MachineTest.class));
+                MachineTest.class,
+                AlphabetTest.class,
+                ConfigImageTest.class,
+                BombeTest.class,
+                HillClimbTest.class,
+                PlugboardSolverTest.class,
+                LaneEngineTest.class,
+                KeySpaceTest.class,
+                MainTest.class,
+                MessageReaderTest.class,
+                MappedOutputStreamTest.class));
     }
 }